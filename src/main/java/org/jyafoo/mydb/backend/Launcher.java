@@ -2,6 +2,7 @@ package org.jyafoo.mydb.backend;
 
 import org.apache.commons.cli.*;
 import org.jyafoo.mydb.backend.dm.DataManager;
+import org.jyafoo.mydb.backend.dm.pageCache.PageCache;
 import org.jyafoo.mydb.backend.server.Server;
 import org.jyafoo.mydb.backend.tbm.TableManager;
 import org.jyafoo.mydb.backend.tm.TransactionManager;
@@ -32,37 +33,89 @@ public class Launcher {
         options.addOption("open", true, "-open DBPath");
         options.addOption("create", true, "-create DBPath");
         options.addOption("mem", true, "-mem 64MB");
+        options.addOption("pagecache", true, "-pagecache pread|mmap");
+        options.addOption("pagesize", true, "-pagesize 8KB");
+        options.addOption("commitwindow", true, "-commitwindow 10ms");
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = parser.parse(options,args);
 
         if(cmd.hasOption("open")) {
-            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")));
+            openDB(cmd.getOptionValue("open"), parseMem(cmd.getOptionValue("mem")),
+                    parsePageCacheMode(cmd.getOptionValue("pagecache")),
+                    parseCommitWindow(cmd.getOptionValue("commitwindow")));
             return;
         }
         if(cmd.hasOption("create")) {
-            createDB(cmd.getOptionValue("create"));
+            createDB(cmd.getOptionValue("create"), parsePageSize(cmd.getOptionValue("pagesize")));
             return;
         }
         System.out.println("Usage: launcher (open|create) DBPath");
     }
 
-    private static void createDB(String path) {
+    private static void createDB(String path, int pageSize) {
         TransactionManager tm = TransactionManager.create(path);
-        DataManager dm = DataManager.create(path, DEFALUT_MEM, tm);
+        DataManager dm = DataManager.create(path, DEFALUT_MEM, tm, pageSize);
         VersionManager vm = new VersionManagerImpl(tm, dm);
         TableManager.create(path, vm, dm);
-        tm.close();
+        vm.close();
         dm.close();
+        tm.close();
     }
 
-    private static void openDB(String path, long mem) {
+    private static void openDB(String path, long mem, boolean mmap, long commitWindow) {
         TransactionManager tm = TransactionManager.open(path);
-        DataManager dm = DataManager.open(path, mem, tm);
-        VersionManager vm = new VersionManagerImpl(tm, dm);
+        DataManager dm = DataManager.open(path, mem, tm, mmap);
+        VersionManager vm = new VersionManagerImpl(tm, dm, commitWindow);
         TableManager tbm = TableManager.open(path, vm, dm);
         new Server(port, tbm).start();
     }
 
+    /**
+     * 解析页面缓存的文件读写方式，默认使用 pread/pwrite
+     *
+     * @return 是否使用内存映射
+     */
+    private static boolean parsePageCacheMode(String mode) {
+        if (mode == null || "".equals(mode) || "pread".equals(mode)) {
+            return false;
+        }
+        if ("mmap".equals(mode)) {
+            return true;
+        }
+        Panic.panic(Error.InvalidPageCacheModeException);
+        return false;
+    }
+
+    /**
+     * 解析创建数据库时的页大小，支持 4KB~32KB，默认 8KB
+     */
+    private static int parsePageSize(String sizeStr) {
+        if (sizeStr == null || "".equals(sizeStr)) {
+            return PageCache.PAGE_SIZE;
+        }
+        if (sizeStr.endsWith("KB")) {
+            return (int) (Long.parseLong(sizeStr.substring(0, sizeStr.length() - 2)) * KB);
+        }
+        return Integer.parseInt(sizeStr);
+    }
+
+    /**
+     * 解析异步提交的刷盘周期，单位毫秒，默认 10ms
+     */
+    private static long parseCommitWindow(String windowStr) {
+        if (windowStr == null || "".equals(windowStr)) {
+            return VersionManagerImpl.ASYNC_COMMIT_WINDOW;
+        }
+        if (windowStr.endsWith("ms")) {
+            windowStr = windowStr.substring(0, windowStr.length() - 2);
+        }
+        long window = Long.parseLong(windowStr);
+        if (window <= 0) {
+            Panic.panic(Error.InvalidCommitWindowException);
+        }
+        return window;
+    }
+
     private static long parseMem(String memStr) {
         if(memStr == null || "".equals(memStr)) {
             return DEFALUT_MEM;
@@ -2,59 +2,128 @@ package org.jyafoo.mydb.backend.common;
 
 import org.jyafoo.mydb.common.Error;
 
-import java.util.HashMap;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
 
 /**
  * AbstractCache 实现了一个引用计数策略的缓存
+ * <p>
+ * 未指定置换策略时，资源在引用计数归零时立即被驱逐；
+ * 指定了置换策略（驻留模式）时，引用计数归零的资源仍留在缓存中，只有在需要空出位置时才由置换策略选出并驱逐
+ * <p>
+ * 缓存基于 ConcurrentHashMap 实现，对同一个 key 的引用计数修改在 compute 中完成，只会锁住该 key 所在的桶，
+ * 不同 key 上的操作互不阻塞。同一个资源的并发加载者共享一个 CompletableFuture，只有一个线程真正执行 getForCache
+ * <p>
+ * 写回和驱逐不在 compute 中进行：compute 中只把缓存项标记为正在写回，写回在桶锁之外完成，
+ * 期间想要引用该资源的线程在锁外等待写回结束后重试
  *
  * @author jyafoo
  * @since 2024/9/29
  */
 public abstract class AbstractCache<T> {
 
+    /**
+     * 缓存项：加载结果以及引用计数
+     */
+    private static class Holder<T> {
+        /**
+         * 资源的加载结果，加载完成之前其他线程在此等待
+         */
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        /**
+         * 元素的引用个数，只在 compute 中修改
+         */
+        volatile int references;
+        /**
+         * 正在写回或驱逐时不为null，写回结束后完成；在 compute 中设置，由写回的线程在结束后清除。
+         * 不为null期间其他线程不能引用该资源
+         */
+        volatile CompletableFuture<Void> io;
+
+        boolean isLoaded() {
+            return future.isDone() && !future.isCompletedExceptionally();
+        }
+    }
+
     /**
      * 实际缓存数据
      */
-    private HashMap<Long, T> cache;
+    private final ConcurrentHashMap<Long, Holder<T>> cache;
+
+    /**
+     * 缓存的最大缓存资源数量，用于控制缓存的大小
+     */
+    private final int maxResource;
+
     /**
-     * 元素的引用个数
+     * 缓存中元素的个数（包括正在加载的元素）
      */
-    private HashMap<Long, Integer> references;
+    private final AtomicInteger count;
+
     /**
-     * 正在获取某资源的线程
+     * 置换策略，为null时表示引用计数归零即驱逐
      */
-    private HashMap<Long, Boolean> getting;
+    private final Replacer replacer;
 
     /**
-     * 缓存的最大缓存资源数量，用于控制缓存的大小
+     * 驻留模式下，缓存已满且没有可驱逐资源时，等待资源被释放的锁和条件
      */
-    private int maxResource;
+    private final Lock waitLock;
+    private final Condition frameFree;
+    private final AtomicInteger waiters;
 
     /**
-     * 缓存中元素的个数
+     * 驻留模式下，缓存已满时等待空闲位置的最长时间，单位毫秒
      */
-    private int count = 0;
+    private static final long FRAME_WAIT_MILLIS = 100;
 
+    // 统计计数
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
     /**
-     * 锁，用于同步操作
+     * 未命中时加载资源耗时的直方图，按微秒取对数分桶，见 CacheStats.latencyBucket
      */
-    private Lock lock;
+    private final LongAdder[] missLatency;
 
     public AbstractCache(int maxResource) {
+        this(maxResource, null);
+    }
+
+    /**
+     * @param maxResource 缓存的最大资源数量，0表示不限制
+     * @param replacer    置换策略，不为null时缓存工作在驻留模式
+     */
+    protected AbstractCache(int maxResource, Replacer replacer) {
         this.maxResource = maxResource;
-        cache = new HashMap<>();
-        references = new HashMap<>();
-        getting = new HashMap<>();
-        lock = new ReentrantLock();
+        this.replacer = replacer;
+        cache = new ConcurrentHashMap<>();
+        count = new AtomicInteger(0);
+        waitLock = new ReentrantLock();
+        frameFree = waitLock.newCondition();
+        waiters = new AtomicInteger(0);
+        missLatency = new LongAdder[CacheStats.LATENCY_BUCKETS];
+        for (int i = 0; i < missLatency.length; i++) {
+            missLatency[i] = new LongAdder();
+        }
     }
 
     /**
      * 根据键获取资源对象
-     * 该方法首先尝试从缓存中获取资源，如果缓存中不存在且资源获取未被其他线程锁定，则尝试将资源加入缓存
-     * 如果缓存已满，则抛出CacheFullException异常
+     * 该方法首先尝试从缓存中获取资源，如果缓存中不存在，则占用一个位置并加载资源；如果资源正在被其他线程加载，则等待其加载结果
+     * 如果缓存已满，驻留模式下会先尝试驱逐一个未被引用的资源，没有可驱逐的资源时短暂等待；
+     * 仍然无法空出位置时，抛出CacheFullException异常
      *
      * @param key 资源的键
      * @return 资源对象
@@ -62,67 +131,296 @@ public abstract class AbstractCache<T> {
      */
     protected T get(long key) throws Exception {
         // TODO (jyafoo,2024/9/30,10:18) Q：获取资源不是很理解？A：这是缓存的抽象类，下游模块可通过cache对磁盘进行读写
-        // 循环上锁是为了拿到获取资源的权利
         while (true) {
-            // 上锁，防止多线程并发访问资源缓存时出现竞争条件
-            lock.lock();
-            // 1、检查当前请求的资源是否正在被其他线程获取
-            if (getting.containsKey(key)) {
-                // 请求的资源正在被其他线程获取，释放锁并短暂休眠，然后重新尝试
-                lock.unlock();
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    // 休眠被中断时处理异常，打印堆栈跟踪后继续下一次循环尝试
-                    e.printStackTrace();
-                    continue;
+            // 1、资源已在缓存中（或正在被其他线程加载），增加引用计数后等待加载结果
+            boolean[] pinned = {false};
+            Holder<T> holder = cache.computeIfPresent(key, (k, h) -> {
+                if (h.io == null) {
+                    h.references++;
+                    pinned[0] = true;
+                }
+                return h;
+            });
+            if (holder != null && !pinned[0]) {
+                // 资源正在写回或驱逐，等待结束后重试
+                CompletableFuture<Void> io = holder.io;
+                if (io != null) {
+                    io.join();
                 }
                 continue;
             }
+            if (holder != null) {
+                hits.increment();
+                if (replacer != null) {
+                    replacer.recordAccess(key);
+                }
+                return await(holder);
+            }
 
-            // 2、检查资源是否已经在缓存中
-            if (cache.containsKey(key)) {
-                // 资源在缓存中，直接返回，并增加引用计数
-                T obj = cache.get(key);
-                references.put(key, references.get(key) + 1);
-                lock.unlock();
-                return obj;
+            // 2、不在缓存中，先占用一个位置
+            reserve();
+
+            // 3、登记为该资源的加载者，如果已经有其他线程抢先登记，则退还位置后重试
+            Holder<T> mine = new Holder<>();
+            mine.references = 1;
+            if (cache.putIfAbsent(key, mine) != null) {
+                count.decrementAndGet();
+                continue;
             }
 
-            // 3、不在缓存中，准备尝试获取资源，检查是否达到最大资源限制
-            if (maxResource > 0 && count == maxResource) {
-                // 缓存已满，无法获取更多资源，释放锁并抛出异常
-                lock.unlock();
-                throw Error.CacheFullException;
+            // 4、实际加载资源
+            T obj;
+            long start = System.nanoTime();
+            try {
+                obj = getForCache(key);
+            } catch (Exception e) {
+                // 获取资源过程中发生异常，移除缓存项，退还位置，并通知等待的线程
+                cache.remove(key, mine);
+                count.decrementAndGet();
+                mine.future.completeExceptionally(e);
+                signalFrameFree();
+                throw e;
+            }
+
+            misses.increment();
+            missLatency[CacheStats.latencyBucket((System.nanoTime() - start) / 1000)].increment();
+            // 先登记到置换策略，再公开加载结果，保证可被驱逐的资源一定在置换策略中
+            if (replacer != null) {
+                replacer.recordInsert(key);
             }
-            // 4、未达资源限制，准备获取资源
-            count++;
-            getting.put(key, true);
-            lock.unlock();
-            break; // 退出循环，尝试获取资源
+            mine.future.complete(obj);
+            return obj;
         }
+    }
 
-        T obj = null;
+    /**
+     * 等待资源加载完成
+     */
+    private T await(Holder<T> holder) throws Exception {
         try {
-            // 实际尝试获取资源，并准备放入缓存
-            obj = getForCache(key);
-        } catch (Exception e) {
-            // 获取资源过程中发生异常，减少计数，移除获取标记，并重新抛出异常
-            lock.lock();
-            count--;
-            getting.remove(key);
-            lock.unlock();
+            return holder.future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
             throw e;
         }
+    }
 
-        // 获取资源成功，更新缓存和引用计数
-        lock.lock();
-        getting.remove(key);
-        cache.put(key, obj);
-        references.put(key, 1);
-        lock.unlock();
+    /**
+     * 为一个即将加载的资源占用一个位置
+     */
+    private void reserve() throws Exception {
+        if (maxResource <= 0) {
+            count.incrementAndGet();
+            return;
+        }
+        long deadline = 0;
+        while (true) {
+            int c = count.get();
+            if (c < maxResource) {
+                if (count.compareAndSet(c, c + 1)) {
+                    return;
+                }
+                continue;
+            }
+            if (replacer == null) {
+                // 缓存已满，无法获取更多资源
+                throw Error.CacheFullException;
+            }
+            // 驻留模式：驱逐一个未被引用的资源，没有的话等待其他线程释放资源
+            if (evictOne()) {
+                continue;
+            }
+            if (deadline == 0) {
+                deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FRAME_WAIT_MILLIS);
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw Error.CacheFullException;
+            }
+            waitLock.lock();
+            waiters.incrementAndGet();
+            try {
+                // 持有 waitLock 后再试一次，避免错过在此之前发出的唤醒
+                if (!evictOne()) {
+                    frameFree.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                throw Error.CacheFullException;
+            } finally {
+                waiters.decrementAndGet();
+                waitLock.unlock();
+            }
+        }
+    }
 
-        return obj;
+    /**
+     * 唤醒等待空闲位置的线程
+     */
+    private void signalFrameFree() {
+        if (waiters.get() > 0) {
+            waitLock.lock();
+            try {
+                frameFree.signalAll();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 驻留模式下，由置换策略选出一个未被引用的资源并驱逐
+     *
+     * @return 成功驱逐返回true；没有可驱逐的资源返回false
+     */
+    private boolean evictOne() {
+        while (true) {
+            Long victim = replacer.victim(k -> {
+                Holder<T> h = cache.get(k);
+                return h != null && h.references == 0 && h.isLoaded() && h.io == null;
+            });
+            if (victim == null) {
+                return false;
+            }
+            // 在 compute 中再次确认没有被引用并标记为正在驱逐，之后其他线程无法引用该资源
+            Holder<T> h = claim(victim, false);
+            if (h == null) {
+                continue;
+            }
+            try {
+                releaseForCache(h.future.join());
+                // 先移出置换策略再移出缓存，避免移除重新加载后登记的同一资源
+                replacer.remove(victim);
+                cache.remove(victim, h);
+            } finally {
+                unclaim(h);
+            }
+            count.decrementAndGet();
+            evictions.increment();
+            return true;
+        }
+    }
+
+    /**
+     * 把已加载且没有在写回的资源标记为正在写回，标记在 compute 中完成
+     *
+     * @param key         资源id
+     * @param allowPinned 是否允许标记正在被引用的资源
+     * @return 标记成功返回缓存项；资源不在缓存中、未加载、正在写回或（不允许时）正在被引用返回null
+     */
+    private Holder<T> claim(long key, boolean allowPinned) {
+        CompletableFuture<Void> io = new CompletableFuture<>();
+        Holder<T> holder = cache.computeIfPresent(key, (k, h) -> {
+            if (h.io == null && h.isLoaded() && (allowPinned || h.references == 0)) {
+                h.io = io;
+            }
+            return h;
+        });
+        return holder != null && holder.io == io ? holder : null;
+    }
+
+    /**
+     * 结束写回，唤醒等待引用该资源的线程
+     */
+    private void unclaim(Holder<T> holder) {
+        CompletableFuture<Void> io = holder.io;
+        holder.io = null;
+        io.complete(null);
+    }
+
+    /**
+     * 驻留模式下，丢弃满足条件且未被引用的资源，不执行写回
+     *
+     * @param condition 需要丢弃的资源条件
+     */
+    protected void discard(LongPredicate condition) {
+        List<Long> keys = new ArrayList<>(cache.keySet());
+        for (long key : keys) {
+            if (!condition.test(key)) {
+                continue;
+            }
+            boolean[] removed = {false};
+            cache.computeIfPresent(key, (k, h) -> {
+                if (h.references != 0 || !h.isLoaded() || h.io != null) {
+                    return h;
+                }
+                if (replacer != null) {
+                    replacer.remove(k);
+                }
+                removed[0] = true;
+                return null;
+            });
+            if (removed[0]) {
+                count.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 判断资源是否在缓存中（包括正在加载的资源）
+     *
+     * @param key 资源id
+     */
+    protected boolean contains(long key) {
+        return cache.containsKey(key);
+    }
+
+    /**
+     * 驻留模式下，如果资源在缓存中且未被引用，则对其执行操作
+     * <p>
+     * 操作执行期间其他线程无法引用或驱逐该资源，适合后台写回等需要资源保持不变的场景。
+     * 操作在 compute 之外执行，不会阻塞同一个桶中其他资源的引用和释放
+     *
+     * @param key    资源id
+     * @param action 要执行的操作
+     * @return 执行了操作返回true；资源不在缓存中、正在被引用或正在写回返回false
+     */
+    protected boolean withUnpinned(long key, Consumer<T> action) {
+        Holder<T> h = claim(key, false);
+        if (h == null) {
+            return false;
+        }
+        try {
+            action.accept(h.future.join());
+        } finally {
+            unclaim(h);
+        }
+        return true;
+    }
+
+    /**
+     * 驻留模式下，对缓存中所有已加载的资源（包括正在被引用的资源）执行操作
+     * <p>
+     * 操作期间该资源不会被驱逐，但引用者仍可能访问它，需要调用方保证资源不被修改。
+     * 资源正在被其他线程写回时，等待其结束后再执行；写回期间被驱逐的资源跳过
+     *
+     * @param action 要执行的操作
+     */
+    protected void forEachLoaded(Consumer<T> action) {
+        List<Long> keys = new ArrayList<>(cache.keySet());
+        for (long key : keys) {
+            while (true) {
+                Holder<T> h = claim(key, true);
+                if (h != null) {
+                    try {
+                        action.accept(h.future.join());
+                    } finally {
+                        unclaim(h);
+                    }
+                    break;
+                }
+                Holder<T> current = cache.get(key);
+                if (current == null || !current.isLoaded()) {
+                    break;
+                }
+                CompletableFuture<Void> io = current.io;
+                if (io != null) {
+                    io.join();
+                }
+            }
+        }
     }
 
     /**
@@ -133,20 +431,23 @@ public abstract class AbstractCache<T> {
      * @param key 缓存对象的键
      */
     protected void release(long key) {
-        lock.lock();
-        try {
-            int ref = references.get(key) - 1;
-            if (ref == 0) {
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
-                count--;
-            } else {
-                references.put(key, ref);
+        boolean[] unpinned = {false};
+        cache.computeIfPresent(key, (k, h) -> {
+            h.references--;
+            if (h.references > 0) {
+                return h;
             }
-        } finally {
-            lock.unlock();
+            if (replacer != null) {
+                // 驻留模式：资源留在缓存中
+                unpinned[0] = true;
+                return h;
+            }
+            releaseForCache(h.future.join());
+            count.decrementAndGet();
+            return null;
+        });
+        if (unpinned[0]) {
+            signalFrameFree();
         }
     }
 
@@ -155,20 +456,72 @@ public abstract class AbstractCache<T> {
      */
     // TODO (jyafoo,2024/9/30,10:49) 这里感觉只有释放，为什么说写回？
     protected void close() {
-        lock.lock();
-        try {
-            Set<Long> keys = cache.keySet();
-            for (long key : keys) {
-                T obj = cache.get(key);
-                releaseForCache(obj);
-                references.remove(key);
-                cache.remove(key);
+        List<Long> keys = new ArrayList<>(cache.keySet());
+        for (long key : keys) {
+            cache.computeIfPresent(key, (k, h) -> {
+                if (h.isLoaded()) {
+                    releaseForCache(h.future.join());
+                }
+                if (replacer != null) {
+                    replacer.remove(k);
+                }
+                return null;
+            });
+        }
+        count.set(0);
+    }
+
+    /**
+     * 获取缓存命中次数
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * 获取缓存未命中（需要从数据源加载）次数
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * 获取驻留模式下因空出位置而驱逐资源的次数
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * 生成缓存统计信息的快照
+     * <p>
+     * 被引用的资源数需要遍历缓存得到，只在查询统计时计算，不影响获取和释放资源的开销
+     *
+     * @param name 缓存名称
+     */
+    protected CacheStats stats(String name) {
+        int pinned = 0;
+        for (Holder<T> h : cache.values()) {
+            if (h.references > 0) {
+                pinned++;
             }
-        } finally {
-            lock.unlock();
         }
+        long[] latency = new long[missLatency.length];
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = missLatency[i].sum();
+        }
+        CacheStats stats = new CacheStats(name, count.get(), maxResource, hits.sum(), misses.sum(), evictions.sum(), pinned, latency);
+        fillStats(stats);
+        return stats;
     }
 
+    /**
+     * 子类向统计信息中附加特有的计数
+     *
+     * @param stats 统计信息快照
+     */
+    protected void fillStats(CacheStats stats) {
+    }
 
     /**
      * 当资源不在缓存时的获取行为
@@ -0,0 +1,106 @@
+package org.jyafoo.mydb.backend.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 缓存统计信息的快照
+ * <p>
+ * 由 AbstractCache 在查询时生成，记录期间只累加计数器，不创建任何对象；
+ * 子类特有的计数（例如页面缓存的脏页数）以名称-数值的形式附加在 extras 中
+ *
+ * @author jyafoo
+ * @since 2024/10/11
+ */
+public class CacheStats {
+
+    /**
+     * 未命中加载延迟直方图的桶数：第0个桶为不足1微秒，第i个桶为[2^(i-1), 2^i)微秒，最后一个桶包含所有更长的延迟
+     */
+    public static final int LATENCY_BUCKETS = 16;
+
+    public final String name;
+    public final int size;
+    public final int capacity;
+    public final long hits;
+    public final long misses;
+    public final long evictions;
+    public final int pinned;
+    public final long[] missLatency;
+    public final Map<String, Long> extras;
+
+    public CacheStats(String name, int size, int capacity, long hits, long misses, long evictions, int pinned, long[] missLatency) {
+        this.name = name;
+        this.size = size;
+        this.capacity = capacity;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.pinned = pinned;
+        this.missLatency = missLatency;
+        this.extras = new LinkedHashMap<>();
+    }
+
+    /**
+     * 计算延迟所在的直方图桶
+     *
+     * @param micros 延迟，单位微秒
+     */
+    public static int latencyBucket(long micros) {
+        return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * 命中率，没有访问时为0
+     */
+    public double hitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * 附加一个子类特有的计数
+     */
+    public void put(String key, long value) {
+        extras.put(key, value);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[").append(name).append("]\n");
+        sb.append("size: ").append(size);
+        if (capacity > 0) {
+            sb.append("/").append(capacity);
+        }
+        sb.append(", pinned: ").append(pinned).append("\n");
+        sb.append("hits: ").append(hits)
+                .append(", misses: ").append(misses)
+                .append(", hit ratio: ").append(String.format("%.2f%%", hitRatio() * 100))
+                .append(", evictions: ").append(evictions).append("\n");
+        sb.append("miss latency(us):");
+        for (int i = 0; i < missLatency.length; i++) {
+            if (missLatency[i] == 0) {
+                continue;
+            }
+            if (i == missLatency.length - 1) {
+                sb.append(" >=").append(1L << (i - 1));
+            } else {
+                sb.append(" <").append(1L << i);
+            }
+            sb.append(":").append(missLatency[i]);
+        }
+        sb.append("\n");
+        if (!extras.isEmpty()) {
+            StringBuilder line = new StringBuilder();
+            for (Map.Entry<String, Long> e : extras.entrySet()) {
+                if (line.length() > 0) {
+                    line.append(", ");
+                }
+                line.append(e.getKey()).append(": ").append(e.getValue());
+            }
+            sb.append(line).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package org.jyafoo.mydb.backend.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
+
+/**
+ * CLOCK（二次机会）置换策略
+ * <p>
+ * 所有驻留资源按进入顺序排成一个环，每个资源带一个访问位。
+ * 时钟指针扫过资源时，访问位为1的资源清零后获得第二次机会，访问位为0且可驱逐的资源被选为牺牲者。
+ *
+ * @author jyafoo
+ * @since 2024/10/9
+ */
+public class ClockReplacer implements Replacer {
+
+    /**
+     * 时钟环，队头即时钟指针所指的位置
+     */
+    private final LinkedHashSet<Long> ring;
+
+    /**
+     * 访问位为1的资源。命中时只需要设置访问位，不需要获取环的锁
+     */
+    private final Set<Long> referenced;
+
+    /**
+     * 保护时钟环的锁
+     */
+    private final Lock lock;
+
+    public ClockReplacer() {
+        ring = new LinkedHashSet<>();
+        referenced = ConcurrentHashMap.newKeySet();
+        lock = new ReentrantLock();
+    }
+
+    @Override
+    public void recordInsert(long key) {
+        lock.lock();
+        try {
+            ring.add(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void recordAccess(long key) {
+        referenced.add(key);
+    }
+
+    @Override
+    public void remove(long key) {
+        lock.lock();
+        try {
+            ring.remove(key);
+            referenced.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Long victim(LongPredicate evictable) {
+        lock.lock();
+        try {
+            // 最多转两圈：第一圈清除访问位，第二圈一定能找到访问位为0的可驱逐资源（如果存在的话）
+            int steps = ring.size() * 2;
+            for (int i = 0; i < steps; i++) {
+                Iterator<Long> hand = ring.iterator();
+                if (!hand.hasNext()) {
+                    return null;
+                }
+                long key = hand.next();
+                if (!referenced.remove(key) && evictable.test(key)) {
+                    return key;
+                }
+                // 指针后移：将该资源挪到环尾
+                hand.remove();
+                ring.add(key);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.jyafoo.mydb.backend.common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 文件写入计数器：写入的记录数和字节数、刷盘次数和刷盘耗时的直方图
+ * <p>
+ * 记录时只累加 LongAdder，不加锁也不创建对象，可以一直开启；查询时由 snapshot 生成 IoStats
+ *
+ * @author jyafoo
+ * @since 2024/10/13
+ */
+public class IoMetrics {
+
+    private final long startNanos = System.nanoTime();
+    private final LongAdder records = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder syncMicros = new LongAdder();
+    /**
+     * 刷盘耗时的直方图，按微秒取对数分桶，见 CacheStats.latencyBucket
+     */
+    private final LongAdder[] syncLatency;
+
+    public IoMetrics() {
+        syncLatency = new LongAdder[CacheStats.LATENCY_BUCKETS];
+        for (int i = 0; i < syncLatency.length; i++) {
+            syncLatency[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一次写入
+     *
+     * @param count  写入的记录数
+     * @param length 写入的字节数
+     */
+    public void recordWrite(int count, long length) {
+        records.add(count);
+        bytes.add(length);
+    }
+
+    /**
+     * 记录一次刷盘
+     *
+     * @param startNanos 开始刷盘时的 System.nanoTime()
+     */
+    public void recordSync(long startNanos) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        syncs.increment();
+        syncMicros.add(micros);
+        syncLatency[CacheStats.latencyBucket(micros)].increment();
+    }
+
+    /**
+     * 生成统计信息的快照
+     *
+     * @param name 文件的名称
+     */
+    public IoStats snapshot(String name) {
+        long[] latency = new long[syncLatency.length];
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = syncLatency[i].sum();
+        }
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        return new IoStats(name, records.sum(), bytes.sum(), syncs.sum(), syncMicros.sum(), latency, elapsedMillis);
+    }
+}
@@ -0,0 +1,93 @@
+package org.jyafoo.mydb.backend.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 文件写入统计信息的快照，用于日志文件和 XID 文件
+ * <p>
+ * 由 IoMetrics 在查询时生成，速率按自打开文件以来的平均值计算；
+ * 各文件特有的计数（例如日志的队列长度）以名称-数值的形式附加在 extras 中
+ *
+ * @author jyafoo
+ * @since 2024/10/13
+ */
+public class IoStats {
+
+    public final String name;
+    public final long records;
+    public final long bytes;
+    public final long syncs;
+    public final long syncMicros;
+    public final long[] syncLatency;
+    public final long elapsedMillis;
+    public final Map<String, Long> extras;
+
+    public IoStats(String name, long records, long bytes, long syncs, long syncMicros, long[] syncLatency, long elapsedMillis) {
+        this.name = name;
+        this.records = records;
+        this.bytes = bytes;
+        this.syncs = syncs;
+        this.syncMicros = syncMicros;
+        this.syncLatency = syncLatency;
+        this.elapsedMillis = elapsedMillis;
+        this.extras = new LinkedHashMap<>();
+    }
+
+    /**
+     * 每秒写入的记录数
+     */
+    public double recordsPerSecond() {
+        return elapsedMillis == 0 ? 0 : records * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * 每秒写入的字节数
+     */
+    public double bytesPerSecond() {
+        return elapsedMillis == 0 ? 0 : bytes * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * 附加一个特有的计数
+     */
+    public void put(String key, long value) {
+        extras.put(key, value);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[").append(name).append("]\n");
+        sb.append("records: ").append(records)
+                .append(String.format(" (%.1f/s)", recordsPerSecond()))
+                .append(", bytes: ").append(bytes)
+                .append(String.format(" (%.1f/s)", bytesPerSecond())).append("\n");
+        sb.append("syncs: ").append(syncs)
+                .append(", sync time(us): ").append(syncMicros).append("\n");
+        sb.append("sync latency(us):");
+        for (int i = 0; i < syncLatency.length; i++) {
+            if (syncLatency[i] == 0) {
+                continue;
+            }
+            if (i == syncLatency.length - 1) {
+                sb.append(" >=").append(1L << (i - 1));
+            } else {
+                sb.append(" <").append(1L << i);
+            }
+            sb.append(":").append(syncLatency[i]);
+        }
+        sb.append("\n");
+        if (!extras.isEmpty()) {
+            StringBuilder line = new StringBuilder();
+            for (Map.Entry<String, Long> e : extras.entrySet()) {
+                if (line.length() > 0) {
+                    line.append(", ");
+                }
+                line.append(e.getKey()).append(": ").append(e.getValue());
+            }
+            sb.append(line).append("\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,43 @@
+package org.jyafoo.mydb.backend.common;
+
+import java.util.function.LongPredicate;
+
+/**
+ * 缓存置换策略接口
+ * <p>
+ * 驻留式缓存中，引用计数归零的资源不会立即被驱逐，而是留在缓存中，直到需要空出位置时，由置换策略选出牺牲者
+ *
+ * @author jyafoo
+ * @since 2024/10/9
+ */
+public interface Replacer {
+
+    /**
+     * 记录一个新进入缓存的资源
+     *
+     * @param key 资源id
+     */
+    void recordInsert(long key);
+
+    /**
+     * 记录一次缓存命中
+     *
+     * @param key 资源id
+     */
+    void recordAccess(long key);
+
+    /**
+     * 将资源从置换策略中移除
+     *
+     * @param key 资源id
+     */
+    void remove(long key);
+
+    /**
+     * 选出一个可以被驱逐的资源
+     *
+     * @param evictable 判断资源当前是否可以被驱逐（例如没有被引用）
+     * @return 牺牲者的资源id；如果没有可以驱逐的资源，返回null
+     */
+    Long victim(LongPredicate evictable);
+}
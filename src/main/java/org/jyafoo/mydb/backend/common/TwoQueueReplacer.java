@@ -0,0 +1,136 @@
+package org.jyafoo.mydb.backend.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
+
+/**
+ * 2Q 置换策略，抵抗顺序扫描对缓存的冲刷
+ * <p>
+ * 驻留资源分为两段：
+ * 首次进入缓存的资源放在试用段（FIFO），试用段中的命中不会提升资源的地位，所以一次全表扫描只会在试用段中流过；
+ * 从试用段被驱逐的资源只记住它的id（幽灵队列），如果它在幽灵队列中时再次被加载，说明确实被反复访问，直接进入保护段。
+ * 保护段使用 CLOCK 策略管理。
+ * <p>
+ * 试用段超过容量的 1/4 时优先从试用段驱逐，否则从保护段驱逐
+ *
+ * @author jyafoo
+ * @since 2024/10/11
+ */
+public class TwoQueueReplacer implements Replacer {
+
+    /**
+     * 试用段，队头是最早进入的资源
+     */
+    private final LinkedHashSet<Long> probation;
+
+    /**
+     * 幽灵队列：最近从试用段被驱逐的资源id
+     */
+    private final LinkedHashSet<Long> ghost;
+
+    /**
+     * 保护段
+     */
+    private final ClockReplacer protectedSegment;
+
+    /**
+     * 试用段的目标大小
+     */
+    private final int probationLim;
+
+    /**
+     * 幽灵队列的最大长度
+     */
+    private final int ghostLim;
+
+    /**
+     * 保护试用段和幽灵队列的锁
+     */
+    private final Lock lock;
+
+    /**
+     * @param capacity 缓存容量
+     */
+    public TwoQueueReplacer(int capacity) {
+        probation = new LinkedHashSet<>();
+        ghost = new LinkedHashSet<>();
+        protectedSegment = new ClockReplacer();
+        probationLim = Math.max(1, capacity / 4);
+        ghostLim = Math.max(1, capacity / 2);
+        lock = new ReentrantLock();
+    }
+
+    @Override
+    public void recordInsert(long key) {
+        lock.lock();
+        try {
+            if (ghost.remove(key)) {
+                protectedSegment.recordInsert(key);
+            } else {
+                probation.add(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void recordAccess(long key) {
+        // 试用段不记录命中，保护段的访问位在它自己的集合中设置，不需要获取锁
+        protectedSegment.recordAccess(key);
+    }
+
+    @Override
+    public void remove(long key) {
+        lock.lock();
+        try {
+            if (probation.remove(key)) {
+                ghost.add(key);
+                if (ghost.size() > ghostLim) {
+                    Iterator<Long> it = ghost.iterator();
+                    it.next();
+                    it.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        protectedSegment.remove(key);
+    }
+
+    @Override
+    public Long victim(LongPredicate evictable) {
+        lock.lock();
+        try {
+            Long victim = null;
+            if (probation.size() > probationLim) {
+                victim = probationVictim(evictable);
+            }
+            if (victim == null) {
+                victim = protectedSegment.victim(evictable);
+            }
+            if (victim == null) {
+                // 保护段没有可驱逐的资源，试用段即使未超过目标大小也只能从中驱逐
+                victim = probationVictim(evictable);
+            }
+            return victim;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按进入顺序找出试用段中第一个可驱逐的资源
+     */
+    private Long probationVictim(LongPredicate evictable) {
+        for (long key : probation) {
+            if (evictable.test(key)) {
+                return key;
+            }
+        }
+        return null;
+    }
+}
@@ -1,10 +1,19 @@
 package org.jyafoo.mydb.backend.dm;
 
+import org.jyafoo.mydb.backend.common.CacheStats;
+import org.jyafoo.mydb.backend.common.IoStats;
 import org.jyafoo.mydb.backend.dm.dataItem.DataItem;
 import org.jyafoo.mydb.backend.dm.logger.Logger;
 import org.jyafoo.mydb.backend.dm.page.PageOne;
 import org.jyafoo.mydb.backend.dm.pageCache.PageCache;
+import org.jyafoo.mydb.backend.dm.pageCache.PageCacheImpl;
 import org.jyafoo.mydb.backend.tm.TransactionManager;
+import org.jyafoo.mydb.backend.utils.Panic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
 
 /**
  * 数据管理器接口
@@ -40,8 +49,64 @@ public interface DataManager {
      */
     void close();
 
+    /**
+     * 预读数据项所在的页面，调用方不等待加载完成
+     *
+     * @param uids 即将访问的数据项uid
+     */
+    default void prefetch(List<Long> uids) {
+    }
+
+    /**
+     * 执行一次检查点：刷盘所有脏页并记录检查点，回收不再需要的日志段
+     */
+    default void checkpoint() {
+    }
+
+    /**
+     * 设置事务是否异步提交：异步提交的事务写日志时不等待刷盘
+     *
+     * @param xid         事务xid
+     * @param asyncCommit 是否异步提交
+     */
+    default void setAsyncCommit(long xid, boolean asyncCommit) {
+    }
+
+    /**
+     * 等待已写入的日志全部刷盘
+     */
+    default void flushLog() {
+    }
+
+    /**
+     * 获取数据管理器中各个缓存的统计信息
+     */
+    default List<CacheStats> stats() {
+        return List.of();
+    }
+
+    /**
+     * 获取数据管理器中文件写入的统计信息
+     */
+    default List<IoStats> ioStats() {
+        return List.of();
+    }
+
     static DataManager create(String path, long memory, TransactionManager tm) {
-        PageCache pageCache = PageCache.create(path, memory);
+        return create(path, memory, tm, PageCache.PAGE_SIZE);
+    }
+
+    /**
+     * 创建数据管理器，并指定数据库文件的页大小
+     *
+     * @param path     数据库文件路径
+     * @param memory   内存大小
+     * @param tm       事务管理器
+     * @param pageSize 页大小，记录在第一页中，之后打开时沿用
+     * @return 数据管理对象
+     */
+    static DataManager create(String path, long memory, TransactionManager tm, int pageSize) {
+        PageCache pageCache = PageCache.create(path, memory, pageSize);
         Logger logger = Logger.create(path);
 
         DataManagerImpl dm = new DataManagerImpl(pageCache, logger, tm);
@@ -59,8 +124,21 @@ public interface DataManager {
      * @return 数据管理对象
      */
     static DataManager open(String path, long memory, TransactionManager tm) {
-        // 初始化页面缓存，打开或创建数据库文件，并分配内存空间
-        PageCache pageCache = PageCache.open(path, memory);
+        return open(path, memory, tm, false);
+    }
+
+    /**
+     * 打开或初始化数据管理器
+     *
+     * @param path   数据库文件路径
+     * @param memory 内存大小
+     * @param tm     事务管理器
+     * @param mmap   是否使用内存映射方式读写数据库文件
+     * @return 数据管理对象
+     */
+    static DataManager open(String path, long memory, TransactionManager tm, boolean mmap) {
+        // 初始化页面缓存，打开或创建数据库文件，并分配内存空间。页大小记录在第一页中，需要先读出来
+        PageCache pageCache = PageCache.open(path, memory, mmap, readPageSize(path));
         // 初始化日志系统，用于记录数据库操作的日志
         Logger logger = Logger.open(path);
 
@@ -69,7 +147,14 @@ public interface DataManager {
         // 从已有文件创建，则是需要对第一页进行校验，来判断是否需要执行恢复流程
         if (!dm.loadCheckPageOne()) {
             Recover.recover(tm, logger, pageCache);
+        } else {
+            // 正常关闭时最后写入的是检查点日志，从它开始查找日志末尾，不必校验整个日志
+            logger.scanFrom(PageOne.getCheckpointLsn(dm.pageOne));
         }
+        // 打开之前的事务都已没有执行者：有日志的活跃事务已经由恢复过程回滚，其余仍处于活跃状态的事务
+        // 是预分配但没有用到、或者正常关闭时还没有结束的事务，一并中止，之后冻结全部已结束的事务
+        tm.abortUnfinished();
+        tm.freeze();
 
         // 填充页面索引，以便快速定位数据库文件中的页面
         dm.fillPageIndex();
@@ -81,4 +166,26 @@ public interface DataManager {
         return dm;
     }
 
+    /**
+     * 从数据库文件的第一页读取页大小
+     *
+     * @param path 数据库文件路径
+     * @return 页大小
+     */
+    private static int readPageSize(String path) {
+        byte[] header = new byte[PageOne.HEADER_SIZE];
+        File dbFile = new File(path + PageCacheImpl.DB_SUFFIX);
+        if (!dbFile.exists()) {
+            // 文件不存在，交给 PageCache.open 报错
+            return PageCache.PAGE_SIZE;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(dbFile, "r")) {
+            if (file.length() >= header.length) {
+                file.readFully(header);
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return PageOne.getPageSize(header);
+    }
 }
@@ -1,9 +1,12 @@
 package org.jyafoo.mydb.backend.dm;
 
 import org.jyafoo.mydb.backend.common.AbstractCache;
+import org.jyafoo.mydb.backend.common.CacheStats;
+import org.jyafoo.mydb.backend.common.IoStats;
 import org.jyafoo.mydb.backend.dm.dataItem.DataItem;
 import org.jyafoo.mydb.backend.dm.dataItem.DataItemImpl;
 import org.jyafoo.mydb.backend.dm.logger.Logger;
+import org.jyafoo.mydb.backend.dm.logger.LoggerImpl;
 import org.jyafoo.mydb.backend.dm.page.Page;
 import org.jyafoo.mydb.backend.dm.page.PageOne;
 import org.jyafoo.mydb.backend.dm.page.PageX;
@@ -15,8 +18,28 @@ import org.jyafoo.mydb.backend.utils.Panic;
 import org.jyafoo.mydb.backend.utils.Types;
 import org.jyafoo.mydb.common.Error;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * 数据管理器实现
+ * <p>
+ * 模糊检查点：不暂停写操作，先在后台写回一批脏页，再把活跃事务表（事务的第一条日志）和脏页表（页面的 recLSN）
+ * 写成一条检查点日志，在第一页记录它的位置。恢复时从 recLSN 的最小值开始重做，从活跃事务最早的日志开始回滚，
+ * 更早的日志段可以回收。日志自上次检查点起增长超过 checkpointInterval 后，由后台检查点线程执行
+ * <p>
+ * 写日志之前先以当前日志末尾为下界登记活跃事务表和脏页表，保证检查点读到的日志末尾之前的日志都已经登记
+ * <p>
+ * 异步提交的事务写日志时不等待刷盘，页面缓存写回页面之前先等待日志刷盘，仍然保证日志先于页面持久化
  *
  * @author jyafoo
  * @since 2024/10/2
@@ -33,25 +56,85 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
      */
     Page pageOne;
 
+    /**
+     * 普通页是否记录 PageLSN，旧版本文件不记录
+     */
+    private boolean pageLsn;
+
+    /**
+     * 默认的检查点间隔：日志增长的字节数
+     */
+    public static final long CHECKPOINT_INTERVAL = 4 * LoggerImpl.SEGMENT_SIZE;
+
+    /**
+     * 检查点锁：同一时间只执行一个检查点
+     */
+    private final Lock checkpointLock;
+
+    /**
+     * 活跃事务表：事务的第一条日志的LSN（下界），回滚需要从这里开始读日志
+     */
+    private final Map<Long, Long> firstLsn;
+
+    /**
+     * 异步提交的事务：写日志时不等待刷盘
+     */
+    private final Set<Long> asyncXids;
+
+    private final long checkpointInterval;
+
+    /**
+     * 最近一次检查点日志的LSN
+     */
+    private volatile long lastCheckpointLsn;
+
+    private final LongAdder checkpoints = new LongAdder();
+    private final LongAdder checkpointMicros = new LongAdder();
+
+    private final Lock checkpointerLock;
+    private final Condition checkpointWanted;
+    private boolean checkpointPending;
+    private volatile boolean running;
+    private final Thread checkpointer;
+
     public DataManagerImpl(PageCache pageCache, Logger logger, TransactionManager tm) {
+        this(pageCache, logger, tm, CHECKPOINT_INTERVAL);
+    }
+
+    public DataManagerImpl(PageCache pageCache, Logger logger, TransactionManager tm, long checkpointInterval) {
         super(0);
         this.pageCache = pageCache;
         this.logger = logger;
         this.tm = tm;
-        this.pageIndex = new PageIndex();
+        this.pageIndex = new PageIndex(pageCache.getPageSize());
+
+        this.checkpointLock = new ReentrantLock();
+        this.firstLsn = new ConcurrentHashMap<>();
+        this.asyncXids = ConcurrentHashMap.newKeySet();
+        // 异步提交的日志可能还没有刷盘，写回页面之前先等待日志刷盘
+        pageCache.setBeforeWrite(logger::flush);
+        this.checkpointInterval = checkpointInterval;
+
+        this.checkpointerLock = new ReentrantLock();
+        this.checkpointWanted = checkpointerLock.newCondition();
+        this.running = true;
+        this.checkpointer = new Thread(this::checkpointLoop, "checkpointer");
+        this.checkpointer.setDaemon(true);
+        this.checkpointer.start();
     }
 
     /**
      * 在创建文件时初始化PageOne
      */
     public void initPageOne() {
-        int pgno = pageCache.newPage(PageOne.initRaw());
+        int pgno = pageCache.newPage(PageOne.initRaw(pageCache.getPageSize()));
         assert pgno == 1;
         try {
             pageOne = pageCache.getPage(pgno);
         } catch (Exception e) {
             Panic.panic(e);
         }
+        pageLsn = PageOne.hasPageLsn(pageOne);
         pageCache.flushPage(pageOne);
     }
 
@@ -87,14 +170,138 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     }
 
     /**
-     * 为事务xid生成更新日志
+     * 为事务xid生成更新日志，只记录数据项中被修改的区间
      *
      * @param xid      事务xid
      * @param dataItem 要更新的数据项
+     * @param start    被修改区间在数据项中的起始偏移
+     * @param end      被修改区间在数据项中的结束偏移（不含）
+     */
+    public void logDataItem(long xid, DataItem dataItem, int start, int end) {
+        byte[] updateLog = Recover.updateLog(xid, dataItem, start, end);
+        log(xid, dataItem.page(), updateLog);
+    }
+
+    /**
+     * 写入一条修改页面的日志
+     * <p>
+     * 写日志之前以当前日志末尾作为下界，登记事务的第一条日志和页面的 recLSN；写日志之后把页面的 PageLSN 推进到这条日志。
+     * 日志增长超过检查点间隔时唤醒检查点线程
+     * <p>
+     * 调用方在修改页面到这里返回之间一直持有页面，页面写回时 PageLSN 与页面内容一致
+     *
+     * @param xid  事务xid
+     * @param page 被修改的页面
+     * @param log  日志
+     */
+    private void log(long xid, Page page, byte[] log) {
+        long lowerBound = logger.getEndLsn();
+        firstLsn.putIfAbsent(xid, lowerBound);
+        pageCache.markDirty(page.getPageNumber(), lowerBound);
+
+        long lsn = asyncXids.contains(xid) ? logger.logAsync(log) : logger.log(log);
+        if (pageLsn) {
+            page.lock();
+            try {
+                PageX.setPageLsn(page, lsn);
+            } finally {
+                page.unlock();
+            }
+        }
+        if (lsn - lastCheckpointLsn >= checkpointInterval) {
+            checkpointerLock.lock();
+            try {
+                checkpointPending = true;
+                checkpointWanted.signal();
+            } finally {
+                checkpointerLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 检查点线程：被唤醒后执行一次检查点，关闭时退出
+     */
+    private void checkpointLoop() {
+        while (true) {
+            checkpointerLock.lock();
+            try {
+                while (running && !checkpointPending) {
+                    checkpointWanted.awaitUninterruptibly();
+                }
+                if (!running) {
+                    return;
+                }
+                checkpointPending = false;
+            } finally {
+                checkpointerLock.unlock();
+            }
+            checkpoint();
+        }
+    }
+
+    @Override
+    public void setAsyncCommit(long xid, boolean asyncCommit) {
+        if (asyncCommit) {
+            asyncXids.add(xid);
+        } else {
+            asyncXids.remove(xid);
+        }
+    }
+
+    @Override
+    public void flushLog() {
+        logger.flush();
+    }
+
+    @Override
+    public void checkpoint() {
+        checkpointLock.lock();
+        try {
+            long start = System.nanoTime();
+            // 1、写回一批脏页，推进脏页表中最小的 recLSN，期间写操作照常进行
+            pageCache.flushDirtyPages();
+
+            // 2、读取日志末尾，之前的日志都已登记，再取活跃事务表和脏页表的快照
+            long beginLsn = logger.getEndLsn();
+            int pages = pageCache.getPageNumbers();
+            Map<Integer, Long> dirtyPageTable = pageCache.dirtyPageTable();
+            Map<Long, Long> activeTable = new HashMap<>();
+            Iterator<Map.Entry<Long, Long>> it = firstLsn.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, Long> entry = it.next();
+                if (isFinished(entry.getKey())) {
+                    it.remove();
+                } else {
+                    activeTable.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            // 3、写检查点日志，在第一页记录它的位置
+            long checkpointLsn = logger.log(Recover.checkpointLog(beginLsn, activeTable, dirtyPageTable));
+            PageOne.setCheckpoint(pageOne, checkpointLsn, pages);
+            pageCache.flushPage(pageOne);
+            lastCheckpointLsn = checkpointLsn;
+
+            // 4、回收恢复不再需要的日志段
+            logger.truncateBefore(Recover.recoverStart(beginLsn, activeTable, dirtyPageTable));
+
+            checkpoints.increment();
+            checkpointMicros.add((System.nanoTime() - start) / 1000);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    /**
+     * 事务是否已经结束并且状态已经持久化，之后恢复不再需要它的日志。
+     * 异步提交的事务在提交状态写入 XID 文件之前仍要保留在活跃事务表中：崩溃后它会被当作未结束的事务回滚，需要它的日志
      */
-    public void logDataItem(long xid, DataItem dataItem) {
-        byte[] updateLog = Recover.updateLog(xid, dataItem);
-        logger.log(updateLog);
+    private boolean isFinished(long xid) {
+        if (tm.isActive(xid)) {
+            return false;
+        }
+        return !tm.isCommitted(xid) || tm.isCommitPersisted(xid);
     }
 
     /**
@@ -108,6 +315,8 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         } catch (Exception e) {
             Panic.panic(e);
         }
+        lastCheckpointLsn = PageOne.getCheckpointLsn(pageOne);
+        pageLsn = PageOne.hasPageLsn(pageOne);
         return PageOne.checkVc(pageOne);
     }
 
@@ -123,11 +332,42 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
         return dataItemImpl;
     }
 
+    @Override
+    public void prefetch(List<Long> uids) {
+        int[] pgnos = uids.stream().mapToInt(Types::uidToPgno).distinct().toArray();
+        pageCache.prefetch(pgnos);
+    }
+
+    @Override
+    public List<CacheStats> stats() {
+        List<CacheStats> list = new ArrayList<>();
+        CacheStats pageCacheStats = pageCache.stats();
+        if (pageCacheStats != null) {
+            list.add(pageCacheStats);
+        }
+        list.add(stats("data item cache"));
+        return list;
+    }
+
+    @Override
+    public List<IoStats> ioStats() {
+        IoStats stats = logger.stats();
+        return stats == null ? List.of() : List.of(stats);
+    }
+
+    @Override
+    protected void fillStats(CacheStats stats) {
+        stats.put("checkpoints", checkpoints.sum());
+        stats.put("checkpoint time(us)", checkpointMicros.sum());
+        stats.put("last checkpoint lsn", lastCheckpointLsn);
+    }
+
 
     @Override
     public long insert(long xid, byte[] data) throws Exception {
         byte[] raw = DataItem.wrapDataItemRaw(data);
-        if (raw.length > PageX.MAX_FREE_SPACE) {
+        int maxFreeSpace = PageX.maxFreeSpace(pageCache.getPageSize());
+        if (raw.length > maxFreeSpace) {
             throw Error.DataTooLargeException;
         }
 
@@ -139,9 +379,9 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
                 break;
             } else {
                 // 如果没有找到合适的页面，则创建一个新的页面
-                int newPgno = pageCache.newPage(PageX.initRaw());
+                int newPgno = pageCache.newPage(PageX.initRaw(pageCache.getPageSize()));
                 // 将新页面添加到页面索引中
-                pageIndex.add(newPgno, PageX.MAX_FREE_SPACE);
+                pageIndex.add(newPgno, maxFreeSpace);
             }
         }
         // 如果没有找到合适的页面，抛出异常
@@ -157,13 +397,15 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
             // 生成插入操作的日志记录
             byte[] log = Recover.insertLog(xid, page, raw);
             // 将日志记录写入日志文件
-            logger.log(log);
+            log(xid, page, log);
 
             // 在页面中插入数据
-            short offset = PageX.insert(page, raw);
+            int offset = PageX.insert(page, raw);
 
-            // 释放页面
+            // 释放页面。释放之后页面可能被驱逐、页数组被复用，剩余空间需要在释放之前读取
+            freeSpace = PageX.getFreeSpace(page);
             page.release();
+            page = null;
             // 返回插入数据的唯一标识
             return Types.addressToUid(pageInfo.pgno, offset);
         } finally {
@@ -183,9 +425,8 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
      */
     @Override
     protected DataItem getForCache(long uid) throws Exception {
-        short offset = (short) (uid & ((1L << 16) - 1));
-        uid >>>= 32;
-        int pgno = (int) (uid & ((1L << 32) - 1));
+        int offset = Types.uidToOffset(uid);
+        int pgno = Types.uidToPgno(uid);
         Page page = pageCache.getPage(pgno);
         return DataItem.parseDataItem(page, offset, this);
     }
@@ -199,10 +440,25 @@ public class DataManagerImpl extends AbstractCache<DataItem> implements DataMana
     }
 
     /**
-     * DataManager正常关闭时，需要执行缓存和日志的关闭流程，同时设置第一页的字节校验
+     * DataManager正常关闭时，需要执行检查点、缓存和日志的关闭流程，同时设置第一页的字节校验
      */
     @Override
     public void close() {
+        // 停止检查点线程，再执行最后一次检查点
+        checkpointerLock.lock();
+        try {
+            running = false;
+            checkpointWanted.signal();
+        } finally {
+            checkpointerLock.unlock();
+        }
+        try {
+            checkpointer.join();
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+        checkpoint();
+
         super.close();
         logger.close();
 
@@ -5,14 +5,19 @@ import org.jyafoo.mydb.backend.common.SubArray;
 import org.jyafoo.mydb.backend.dm.dataItem.DataItem;
 import org.jyafoo.mydb.backend.dm.logger.Logger;
 import org.jyafoo.mydb.backend.dm.page.Page;
+import org.jyafoo.mydb.backend.dm.page.PageOne;
 import org.jyafoo.mydb.backend.dm.page.PageX;
 import org.jyafoo.mydb.backend.dm.pageCache.PageCache;
 import org.jyafoo.mydb.backend.tm.TransactionManager;
 import org.jyafoo.mydb.backend.utils.Panic;
 import org.jyafoo.mydb.backend.utils.Parser;
+import org.jyafoo.mydb.backend.utils.Types;
 import org.jyafoo.mydb.common.Error;
 
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * @author jyafoo
@@ -27,6 +32,14 @@ public class Recover {
      * 日志记录的操作类型：修改
      */
     private static final byte LOG_TYPE_UPDATE = 1;
+    /**
+     * 日志记录的操作类型：检查点
+     */
+    private static final byte LOG_TYPE_CHECKPOINT = 2;
+    /**
+     * 日志记录的操作类型：只记录被修改区间的修改
+     */
+    private static final byte LOG_TYPE_DELTA = 3;
 
     /**
      * 重做日志操作
@@ -47,19 +60,11 @@ public class Recover {
      */
     private static final int OF_XID = OF_TYPE + 1;
 
-    /**
-     * 更新的日志格式
-     * updateLog：[LogType] [XID] [UID] [OldRaw] [NewRaw]
-     */
-    static class UpdateLogInfo {
-        long xid;       // 事务ID
-        int pgno;       // 页码
-        short offset;   // 偏移量，表示数据在页面中的具体位置
-        byte[] oldRaw;  // 更新前数据的原始字节码，用于记录旧的数据内容
-        byte[] newRaw;  // 更新后数据的新字节码，用于记录新的数据内容
-    }
-
-    // update偏移量
+    // 更新的日志格式
+    // updateLog：[LogType] [XID] [UID] [OldRaw] [NewRaw]
+    // UID 包含页号和数据在页面中的偏移量，OldRaw 和 NewRaw 长度相同，分别用于回滚和重做
+    // 现在只写出区间更新日志，旧日志中的整项更新日志仍按这个格式解析
+    // 解码时直接按偏移量读取日志数组，不把各字段复制出来
     /**
      * 偏移量：更新类型uid，占8字节
      */
@@ -69,18 +74,21 @@ public class Recover {
      */
     private static final int OF_UPDATE_RAW = OF_UPDATE_UID + 8;
 
+    // 区间更新的日志格式，XID 和 UID 的位置与更新日志相同
+    // deltaLog：[LogType] [XID] [UID] [Offset] [OldRaw] [NewRaw]
+    // Offset 为被修改区间在数据项中的偏移，OldRaw 和 NewRaw 只包含被修改的区间，长度相同
     /**
-     * 插入的日志格式
-     * insertLog：[LogType] [XID] [Pgno] [Offset] [Raw]
+     * 偏移量：被修改区间在数据项中的偏移，占2字节
      */
-    static class InsertLogInfo {
-        long xid;       // 事务ID
-        int pgno;       // 页码
-        short offset;   // 偏移量，表示数据在页面中的具体位置
-        byte[] raw;     // 插入数据的原始字节码，用于记录插入的数据内容
-    }
+    private static final int OF_DELTA_OFFSET = OF_UPDATE_UID + 8;
+    /**
+     * 偏移量：被修改区间的旧数据和新数据
+     */
+    private static final int OF_DELTA_RAW = OF_DELTA_OFFSET + 2;
 
-    // insert偏移量
+    // 插入的日志格式
+    // insertLog：[LogType] [XID] [Pgno] [Offset] [Raw]
+    // Offset 为数据在页面中的具体位置，按2字节无符号数存储
     /**
      * 偏移量：页号，占4字节
      */
@@ -96,90 +104,135 @@ public class Recover {
 
 
     /**
-     * 重做事务
-     * <p>
-     * 在系统崩溃后，通过日志重做未完成的事务，以保证数据的一致性
-     *
-     * @param tm        事务管理器
-     * @param logger    日志管理器
-     * @param pageCache 页面缓存
+     * 检查点的日志格式
+     * checkpointLog：[LogType] [BeginLSN] [ATTCount] ([XID] [FirstLSN])... [DPTCount] ([Pgno] [RecLSN])...
+     * BeginLSN 为检查点开始时的日志末尾，ATT 为活跃事务表，DPT 为脏页表
      */
-    // TODO (jyafoo,2024/10/1,20:23) redoTransactions这块不熟，需要再看，尤其是doInsertLog和doUpdateLog
-    private static void redoTransactions(TransactionManager tm, Logger logger, PageCache pageCache) {
-        logger.rewind();
+    static class CheckpointLogInfo {
+        long beginLsn;                  // 检查点开始时的日志末尾
+        Map<Long, Long> activeTable;    // 活跃事务的第一条日志的LSN
+        Map<Integer, Long> dirtyTable;  // 脏页的 recLSN
+    }
 
-        while (true) {
-            byte[] log = logger.next();
-            if (log == null) {
-                break;
-            }
+    // checkpoint偏移量
+    /**
+     * 偏移量：检查点开始时的日志末尾，占8字节
+     */
+    private static final int OF_CHECKPOINT_BEGIN = OF_TYPE + 1;
+    /**
+     * 偏移量：活跃事务表的条目数，占4字节，之后是各条目
+     */
+    private static final int OF_CHECKPOINT_ATT = OF_CHECKPOINT_BEGIN + 8;
 
-            // 判断日志类型
-            if (isInsertLog(log)) {
-                InsertLogInfo insertLogInfo = parseInsertLog(log);
+    /**
+     * 重做线程数：日志按页号分给各个线程，同一页面的日志由同一个线程按日志顺序重做
+     */
+    private static final int REDO_THREADS = Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
 
-                long xid = insertLogInfo.xid;
-                if (!tm.isActive(xid)) {
-                    doInsertLog(pageCache, log, REDO);
-                }
-            } else {
-                UpdateLogInfo updateLogInfo = parseUpdateLog(log);
+    /**
+     * 每个重做线程的队列长度，扫描日志快于重做时阻塞扫描线程
+     */
+    private static final int REDO_QUEUE_LIM = 1024;
 
-                long xid = updateLogInfo.xid;
-                if (!tm.isActive(xid)) {
-                    doUpdateLog(pageCache, log, REDO);
-                }
-            }
+    /**
+     * 重做队列的结束标志
+     */
+    private static final RedoLog REDO_END = new RedoLog(0, new byte[0]);
+
+    /**
+     * 交给重做线程的日志及其LSN
+     */
+    private static class RedoLog {
+        final long lsn;
+        final byte[] log;
+
+        RedoLog(long lsn, byte[] log) {
+            this.lsn = lsn;
+            this.log = log;
         }
     }
 
     /**
-     * 回滚事务
+     * 重做线程：按顺序重做分给它的页面的日志，连续的日志落在同一页面时不重复获取页面
      * <p>
-     * 通过分析日志并执行逆操作来撤销未提交的事务，以确保事务的原子性和数据库的一致性
-     *
-     * @param tm        事务管理器
-     * @param logger    日志管理器
-     * @param pageCache 页面缓存
+     * 物理重做只需要保证同一页面上的日志按顺序执行，不同页面之间可以并行。
+     * 页面记录了 PageLSN 时，LSN 不大于 PageLSN 的日志已经包含在页面中，直接跳过，页面也不会被标记为脏页
      */
-    private static void undoTransactions(TransactionManager tm, Logger logger, PageCache pageCache) {
-        HashMap<Long, List<byte[]>> logCache = new HashMap<>(); // 缓存日志，键为事务ID，值为该事务的所有日志
-        logger.rewind();
+    private static class RedoWorker extends Thread {
+        private final BlockingQueue<RedoLog> queue;
+        private final PageCache pageCache;
+        private final boolean pageLsn;
+
+        RedoWorker(PageCache pageCache, boolean pageLsn, int id) {
+            super("redo-" + id);
+            this.queue = new ArrayBlockingQueue<>(REDO_QUEUE_LIM);
+            this.pageCache = pageCache;
+            this.pageLsn = pageLsn;
+        }
 
-        while (true) {
-            byte[] log = logger.next();
-            if (log == null) {
-                break;
+        void put(RedoLog log) {
+            try {
+                queue.put(log);
+            } catch (InterruptedException e) {
+                Panic.panic(e);
             }
+        }
 
-            if (isInsertLog(log)) {
-                InsertLogInfo insertLogInfo = parseInsertLog(log);
-
-                long xid = insertLogInfo.xid;
-                if (tm.isActive(xid)) {
-                    if (!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
+        @Override
+        public void run() {
+            Page page = null;
+            try {
+                while (true) {
+                    RedoLog redoLog = queue.take();
+                    if (redoLog == REDO_END) {
+                        break;
                     }
-                    logCache.get(xid).add(log);
-                }
-            } else {
-                UpdateLogInfo updateLogInfo = parseUpdateLog(log);
-                long xid = updateLogInfo.xid;
-                if (tm.isActive(xid)) {
-                    if (!logCache.containsKey(xid)) {
-                        logCache.put(xid, new ArrayList<>());
+                    byte[] log = redoLog.log;
+                    int pgno = pgnoOf(log, 0);
+                    if (page == null || page.getPageNumber() != pgno) {
+                        if (page != null) {
+                            page.release();
+                        }
+                        page = pageCache.getPage(pgno);
+                    }
+                    if (pageLsn && redoLog.lsn <= PageX.getPageLsn(page)) {
+                        continue;
+                    }
+                    if (isInsertLog(log, 0)) {
+                        applyInsertLog(page, log, REDO);
+                    } else {
+                        applyUpdateLog(page, log, REDO);
+                    }
+                    if (pageLsn) {
+                        PageX.setPageLsn(page, redoLog.lsn);
                     }
-                    logCache.get(xid).add(log);
+                }
+            } catch (Exception e) {
+                Panic.panic(e);
+            } finally {
+                if (page != null) {
+                    page.release();
                 }
             }
         }
+    }
 
+    /**
+     * 回滚事务
+     * <p>
+     * 通过执行逆操作来撤销未提交的事务，以确保事务的原子性和数据库的一致性
+     *
+     * @param tm        事务管理器
+     * @param pageCache 页面缓存
+     * @param logCache  活跃事务的日志，键为事务ID，值为该事务按顺序的所有日志
+     */
+    private static void undoTransactions(TransactionManager tm, PageCache pageCache, Map<Long, List<byte[]>> logCache) {
         // 对所有activelog进行倒序undo
         for (Map.Entry<Long, List<byte[]>> entry : logCache.entrySet()) {
             List<byte[]> logs = entry.getValue(); // 可能一个事务涉及到多条日志
             for (int i = logs.size() - 1; i >= 0; i--) {
                 byte[] log = logs.get(i);
-                if (isInsertLog(log)) {
+                if (isInsertLog(log, 0)) {
                     doInsertLog(pageCache, log, UNDO);
                 } else {
                     doUpdateLog(pageCache, log, UNDO);
@@ -190,39 +243,87 @@ public class Recover {
         }
     }
 
+    /**
+     * 获取插入或更新日志的事务xid
+     *
+     * @param raw   日志所在的数组
+     * @param start 日志在数组中的起始位置
+     */
+    private static long xidOf(byte[] raw, int start) {
+        return Parser.parseLong(raw, start + OF_XID);
+    }
+
+    /**
+     * 获取插入或更新日志修改的页号
+     *
+     * @param raw   日志所在的数组
+     * @param start 日志在数组中的起始位置
+     */
+    private static int pgnoOf(byte[] raw, int start) {
+        if (isInsertLog(raw, start)) {
+            return Parser.parseInt(raw, start + OF_INSERT_PGNO);
+        }
+        return Types.uidToPgno(Parser.parseLong(raw, start + OF_UPDATE_UID));
+    }
+
     /**
      * 判断是否为插入操作日志
      *
-     * @param log 日志字节数组
+     * @param log   日志所在的数组
+     * @param start 日志在数组中的起始位置
      * @return 如果日志类型为插入，则返回true；否则返回false
      */
-    private static boolean isInsertLog(byte[] log) {
-        return log[0] == LOG_TYPE_INSERT;
+    private static boolean isInsertLog(byte[] log, int start) {
+        return log[start + OF_TYPE] == LOG_TYPE_INSERT;
     }
 
     /**
-     * 判断是否为更新操作日志
+     * 判断是否为检查点日志
      *
-     * @param log 日志字节数组
-     * @return 如果日志类型为更新，则返回true；否则返回false
+     * @param log   日志所在的数组
+     * @param start 日志在数组中的起始位置
+     * @return 如果日志类型为检查点，则返回true；否则返回false
      */
-    private static boolean isUpdateLog(byte[] log) {
-        return log[0] == LOG_TYPE_UPDATE;
+    private static boolean isCheckpointLog(byte[] log, int start) {
+        return log[start + OF_TYPE] == LOG_TYPE_CHECKPOINT;
     }
 
     /**
-     * 解析log封装插入日志对象
+     * 解析log封装检查点日志对象
      *
-     * @param log 插入日志的字节数组
-     * @return 插入日志信息的InsertLogInfo对象
-     */
-    private static InsertLogInfo parseInsertLog(byte[] log) {
-        InsertLogInfo insertLogInfo = new InsertLogInfo();
-        insertLogInfo.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_INSERT_PGNO));
-        insertLogInfo.pgno = Parser.parseInt(Arrays.copyOfRange(log, OF_INSERT_PGNO, OF_INSERT_OFFSET));
-        insertLogInfo.offset = Parser.parseShort(Arrays.copyOfRange(log, OF_INSERT_OFFSET, OF_INSERT_RAW));
-        insertLogInfo.raw = Arrays.copyOfRange(log, OF_INSERT_RAW, log.length);
-        return insertLogInfo;
+     * @param log 检查点日志的字节数组
+     * @return 检查点日志信息的CheckpointLogInfo对象
+     */
+    private static CheckpointLogInfo parseCheckpointLog(byte[] log) {
+        CheckpointLogInfo checkpointLogInfo = new CheckpointLogInfo();
+        checkpointLogInfo.beginLsn = Parser.parseLong(log, OF_CHECKPOINT_BEGIN);
+
+        int pos = OF_CHECKPOINT_ATT;
+        int count = Parser.parseInt(log, pos);
+        pos += 4;
+        checkpointLogInfo.activeTable = new HashMap<>();
+        for (int i = 0; i < count; i++, pos += 16) {
+            checkpointLogInfo.activeTable.put(Parser.parseLong(log, pos), Parser.parseLong(log, pos + 8));
+        }
+
+        count = Parser.parseInt(log, pos);
+        pos += 4;
+        checkpointLogInfo.dirtyTable = new HashMap<>();
+        for (int i = 0; i < count; i++, pos += 12) {
+            checkpointLogInfo.dirtyTable.put(Parser.parseInt(log, pos), Parser.parseLong(log, pos + 4));
+        }
+        return checkpointLogInfo;
+    }
+
+    /**
+     * 判断是否为更新操作日志
+     *
+     * @param log   日志所在的数组
+     * @param start 日志在数组中的起始位置
+     * @return 如果日志类型为更新或区间更新，则返回true；否则返回false
+     */
+    private static boolean isUpdateLog(byte[] log, int start) {
+        return log[start + OF_TYPE] == LOG_TYPE_UPDATE || log[start + OF_TYPE] == LOG_TYPE_DELTA;
     }
 
     /**
@@ -233,53 +334,34 @@ public class Recover {
      * @param flag      操作标志，表示是重做插入还是撤销插入操作
      */
     private static void doInsertLog(PageCache pageCache, byte[] log, int flag) {
-        InsertLogInfo insertLogInfo = parseInsertLog(log);
-
         Page page = null;
         try {
-            page = pageCache.getPage(insertLogInfo.pgno);
+            page = pageCache.getPage(pgnoOf(log, 0));
         } catch (Exception e) {
             Panic.panic(e);
         }
 
         try {
-            if (flag == UNDO) {
-                // TODO (jyafoo,2024/10/1,20:20) 写完dataitem回来释放
-                 DataItem.setDataItemRawInvalid(insertLogInfo.raw);
-            }
-            PageX.recoverInsert(page, insertLogInfo.raw, insertLogInfo.offset);
+            applyInsertLog(page, log, flag);
         } finally {
             page.release();
         }
     }
 
-
     /**
-     * 解析log封装更新日志对象
+     * 在已获取的页面上执行插入日志操作，插入的数据直接从日志数组复制到页面
      *
-     * @param log 更新日志字节数组
-     * @return 更新日志信息的UpdateLogInfo对象
+     * @param page 日志修改的页面
+     * @param log  插入日志
+     * @param flag 操作标志，表示是重做插入还是撤销插入操作
      */
-    private static UpdateLogInfo parseUpdateLog(byte[] log) {
-        UpdateLogInfo updateLogInfo = new UpdateLogInfo();
-
-        // 解析并存储事务标识（xid）信息
-        updateLogInfo.xid = Parser.parseLong(Arrays.copyOfRange(log, OF_XID, OF_UPDATE_UID));
-        long uid = Parser.parseLong(Arrays.copyOfRange(log, OF_UPDATE_UID, OF_UPDATE_RAW));
-
-        // TODO (jyafoo,2024/10/1,20:32) Q7：这看懵逼了，uid & ((1L << 16) - 1)是什么操作？A：因为offset和pgno并没有在日志格式中体现出来，即uid包含了offset和pgno，所以根据这两个字段的字节数从uid中推导出来。猜的。
-        // 提取并存储偏移量信息
-        updateLogInfo.offset = (short) (uid & ((1L << 16) - 1));
-        // 将UID右移以提取页面编号信息
-        uid >>>= 32;
-        updateLogInfo.pgno = (int) (uid & ((1L << 32) - 1));
-
-        // 计算旧数据片段和新数据片段的长度，并根据此长度提取相应的数据
-        int length = (log.length - OF_UPDATE_RAW) / 2;
-        updateLogInfo.oldRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW, OF_UPDATE_RAW + length);
-        updateLogInfo.newRaw = Arrays.copyOfRange(log, OF_UPDATE_RAW + length, OF_UPDATE_RAW + length * 2);
-
-        return updateLogInfo;
+    private static void applyInsertLog(Page page, byte[] log, int flag) {
+        int offset = Short.toUnsignedInt(Parser.parseShort(log, OF_INSERT_OFFSET));
+        if (flag == UNDO) {
+            // TODO (jyafoo,2024/10/1,20:20) 写完dataitem回来释放
+             DataItem.setDataItemRawInvalid(log, OF_INSERT_RAW);
+        }
+        PageX.recoverInsert(page, log, OF_INSERT_RAW, log.length - OF_INSERT_RAW, offset);
     }
 
     /**
@@ -290,53 +372,114 @@ public class Recover {
      * @param flag      操作标志，表示是重做更新还是回滚更新操作
      */
     private static void doUpdateLog(PageCache pageCache, byte[] log, int flag) {
-
-        UpdateLogInfo updateLogInfo = parseUpdateLog(log);
-        int pgno = updateLogInfo.pgno;
-        short offset = updateLogInfo.offset;
-        byte[] raw = null;
-        if (flag == REDO) {
-            raw = updateLogInfo.newRaw;     // 重做日志用后相
-        } else if (flag == UNDO) {
-            raw = updateLogInfo.oldRaw;    // 回滚日志用前相
-        } else {
-            Panic.panic(Error.InvalidTypeException);
-        }
-
         Page page = null;
 
         try {
-            page = pageCache.getPage(pgno);
+            page = pageCache.getPage(pgnoOf(log, 0));
         } catch (Exception e) {
             Panic.panic(e);
         }
 
         try {
-            PageX.recoverUpdate(page, raw, offset);
+            applyUpdateLog(page, log, flag);
         } finally {
             page.release();
         }
     }
 
+    /**
+     * 在已获取的页面上执行更新日志操作，前相或后相直接从日志数组复制到页面
+     *
+     * @param page 日志修改的页面
+     * @param log  更新日志
+     * @param flag 操作标志，表示是重做更新还是回滚更新操作
+     */
+    private static void applyUpdateLog(Page page, byte[] log, int flag) {
+        // uid 的低16位是数据在页面中的偏移量，高位是页号
+        int offset = Types.uidToOffset(Parser.parseLong(log, OF_UPDATE_UID));
+        int ofRaw = OF_UPDATE_RAW;
+        if (log[OF_TYPE] == LOG_TYPE_DELTA) {
+            // 区间更新只覆盖数据项中被修改的部分
+            offset += Short.toUnsignedInt(Parser.parseShort(log, OF_DELTA_OFFSET));
+            ofRaw = OF_DELTA_RAW;
+        }
+        // 前相和后相的长度相同
+        int length = (log.length - ofRaw) / 2;
+        int src = 0;
+        if (flag == REDO) {
+            src = ofRaw + length;   // 重做日志用后相
+        } else if (flag == UNDO) {
+            src = ofRaw;            // 回滚日志用前相
+        } else {
+            Panic.panic(Error.InvalidTypeException);
+        }
+        PageX.recoverUpdate(page, log, src, length, offset);
+    }
+
 
     /**
-     * 构造更新日志条目
+     * 构造更新日志条目，只记录数据项中 [start, end) 区间的前相和后相
      *
      * @param xid      事务ID
      * @param dataItem 数据项对象，包含需要更新的数据项以及其相关元信息
+     * @param start    被修改区间在数据项中的起始偏移
+     * @param end      被修改区间在数据项中的结束偏移（不含）
      * @return 构造好的日志字节数组
      */
-    public static byte[] updateLog(long xid, DataItem dataItem) {
-        byte[] logType = {LOG_TYPE_UPDATE};
-        byte[] xidRaw = Parser.long2Byte(xid);
-        byte[] uidRaw = Parser.long2Byte(dataItem.getUid());
-        byte[] oldRaw = dataItem.getOldRaw();
+    public static byte[] updateLog(long xid, DataItem dataItem, int start, int end) {
+        int length = end - start;
+        byte[] log = new byte[OF_DELTA_RAW + 2 * length];
+        log[OF_TYPE] = LOG_TYPE_DELTA;
+        System.arraycopy(Parser.long2Byte(xid), 0, log, OF_XID, 8);
+        System.arraycopy(Parser.long2Byte(dataItem.getUid()), 0, log, OF_UPDATE_UID, 8);
+        System.arraycopy(Parser.short2Byte((short) start), 0, log, OF_DELTA_OFFSET, 2);
+        System.arraycopy(dataItem.getOldRaw(), start, log, OF_DELTA_RAW, length);
         SubArray raw = dataItem.getRaw();
-        byte[] newRaw = Arrays.copyOfRange(raw.raw, raw.start, raw.end);
-        return Bytes.concat(logType, xidRaw, uidRaw, oldRaw, newRaw);
+        System.arraycopy(raw.raw, raw.start + start, log, OF_DELTA_RAW + length, length);
+        return log;
     }
 
 
+    /**
+     * 构造检查点日志条目
+     *
+     * @param beginLsn    检查点开始时的日志末尾
+     * @param activeTable 活跃事务表：事务的第一条日志的LSN
+     * @param dirtyTable  脏页表：页面的 recLSN
+     * @return 构造好的日志字节数组
+     */
+    public static byte[] checkpointLog(long beginLsn, Map<Long, Long> activeTable, Map<Integer, Long> dirtyTable) {
+        ByteBuffer buf = ByteBuffer.allocate(OF_CHECKPOINT_ATT + 4 + activeTable.size() * 16 + 4 + dirtyTable.size() * 12);
+        buf.put(LOG_TYPE_CHECKPOINT).putLong(beginLsn);
+        buf.putInt(activeTable.size());
+        for (Map.Entry<Long, Long> entry : activeTable.entrySet()) {
+            buf.putLong(entry.getKey()).putLong(entry.getValue());
+        }
+        buf.putInt(dirtyTable.size());
+        for (Map.Entry<Integer, Long> entry : dirtyTable.entrySet()) {
+            buf.putInt(entry.getKey()).putLong(entry.getValue());
+        }
+        return buf.array();
+    }
+
+    /**
+     * 恢复需要的最早的日志：检查点开始时的日志末尾、活跃事务的第一条日志和脏页的 recLSN 中的最小值
+     *
+     * @param beginLsn    检查点开始时的日志末尾
+     * @param activeTable 活跃事务表
+     * @param dirtyTable  脏页表
+     */
+    public static long recoverStart(long beginLsn, Map<Long, Long> activeTable, Map<Integer, Long> dirtyTable) {
+        long start = beginLsn;
+        for (long lsn : activeTable.values()) {
+            start = Math.min(start, lsn);
+        }
+        for (long lsn : dirtyTable.values()) {
+            start = Math.min(start, lsn);
+        }
+        return start;
+    }
+
     /**
      * 构造插入日志条目
      *
@@ -349,7 +492,7 @@ public class Recover {
         byte[] logTypeRaw = {LOG_TYPE_INSERT};
         byte[] xidRaw = Parser.long2Byte(xid);
         byte[] pgnoRaw = Parser.int2Byte(page.getPageNumber());
-        byte[] offsetRaw = Parser.short2Byte(PageX.getFSO(page));
+        byte[] offsetRaw = Parser.short2Byte((short) PageX.getFSO(page));
         return Bytes.concat(logTypeRaw, xidRaw, pgnoRaw, offsetRaw, raw);
     }
 
@@ -363,40 +506,84 @@ public class Recover {
     public static void recover(TransactionManager tm, Logger logger, PageCache pageCache) {
         System.out.println("Recovering...");
 
-        logger.rewind();
+        Page pageOne = null;
+        try {
+            pageOne = pageCache.getPage(1);
+        } catch (Exception e) {
+            Panic.panic(e);
+        }
+        long checkpointLsn = PageOne.getCheckpointLsn(pageOne);
+        int checkpointPages = PageOne.getCheckpointPages(pageOne);
+        boolean pageLsn = PageOne.hasPageLsn(pageOne);
+        pageOne.release();
+
+        // 根据检查点日志确定重做和回滚的起点：重做从脏页表中最小的 recLSN 开始，回滚从活跃事务最早的日志开始
+        long redoLsn = 0;
+        long undoLsn = 0;
+        if (checkpointLsn > 0) {
+            logger.seek(checkpointLsn);
+            byte[] log = logger.next();
+            if (log == null || !isCheckpointLog(log, 0)) {
+                Panic.panic(Error.BadLogFileException);
+            }
+            CheckpointLogInfo checkpointLogInfo = parseCheckpointLog(log);
+            redoLsn = recoverStart(checkpointLogInfo.beginLsn, Map.of(), checkpointLogInfo.dirtyTable);
+            undoLsn = recoverStart(checkpointLogInfo.beginLsn, checkpointLogInfo.activeTable, Map.of());
+        }
 
-        // 寻找最大页号
-        // TODO (jyafoo,2024/10/2,10:18) Q8：为什么要找最大页号？
+        // 单次扫描：统计最大页号，非活跃事务的日志按页号分给重做线程并行重做，活跃事务的日志留给回滚。
+        // 早于 redoLsn 的已提交日志重做一遍也不影响结果，之后的日志会按顺序覆盖
+        logger.seek(Math.min(redoLsn, undoLsn));
+        RedoWorker[] workers = new RedoWorker[REDO_THREADS];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new RedoWorker(pageCache, pageLsn, i);
+            workers[i].start();
+        }
+        Map<Long, List<byte[]>> undoLogs = new HashMap<>();
         int maxPgno = 0;
         while (true) {
-            byte[] log = logger.next();
+            // 在日志的读缓冲区中直接解码，只有交给重做线程或留给回滚的日志才复制出来
+            SubArray log = logger.nextView();
             if (log == null) {
                 break;
             }
-
-            int pgno;
-            if (isInsertLog(log)) {
-                InsertLogInfo insertLogInfo = parseInsertLog(log);
-                pgno = insertLogInfo.pgno;
-            } else {
-                UpdateLogInfo updateLogInfo = parseUpdateLog(log);
-                pgno = updateLogInfo.pgno;
+            if (isCheckpointLog(log.raw, log.start)) {
+                continue;
             }
 
+            int pgno = pgnoOf(log.raw, log.start);
             maxPgno = Math.max(maxPgno, pgno);
+            long xid = xidOf(log.raw, log.start);
+            byte[] record = Arrays.copyOfRange(log.raw, log.start, log.end);
+            if (tm.isActive(xid)) {
+                undoLogs.computeIfAbsent(xid, k -> new ArrayList<>()).add(record);
+            } else {
+                workers[pgno % workers.length].put(new RedoLog(logger.lastLsn(), record));
+            }
         }
+        for (RedoWorker worker : workers) {
+            worker.put(REDO_END);
+        }
+        for (RedoWorker worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Panic.panic(e);
+            }
+        }
+        System.out.println("Redo Transactions Over.");
 
-        maxPgno = maxPgno == 0 ? 1 : maxPgno;
-
+        // 检查点之前新建的页面已经写入文件，不一定出现在扫描的日志中
+        maxPgno = Math.max(1, Math.max(maxPgno, checkpointPages));
         pageCache.truncateByPgno(maxPgno);
         System.out.println("Truncate to " + maxPgno + " pages.");
 
-        redoTransactions(tm, logger, pageCache);
-        System.out.println("Redo Transactions Over.");
-
-        undoTransactions(tm, logger, pageCache);
+        undoTransactions(tm, pageCache, undoLogs);
         System.out.println("Undo Transactions Over.");
 
+        // 恢复修改的页面没有登记在脏页表中，全部写回，之后的检查点才能跳过这些日志
+        pageCache.flushAll();
+
         System.out.println("Recovery Over.");
     }
 }
@@ -122,7 +122,7 @@ public interface DataItem {
      * @param dm     数据管理器
      * @return 数据项对象
      */
-    static DataItem parseDataItem(Page page, short offset, DataManagerImpl dm) {
+    static DataItem parseDataItem(Page page, int offset, DataManagerImpl dm) {
         byte[] raw = page.getData();
         // 解析数据项大小
         short size = Parser.parseShort(Arrays.copyOfRange(raw, offset + DataItemImpl.OF_SIZE, offset + DataItemImpl.OF_DATA));
@@ -140,7 +140,17 @@ public interface DataItem {
      * @param raw 原始数据
      */
     static void setDataItemRawInvalid(byte[] raw) {
-        raw[DataItemImpl.OF_VALID] = (byte) 1;
+        setDataItemRawInvalid(raw, 0);
+    }
+
+    /**
+     * 将数组中从指定位置开始的 DataItem 原始数据设置为无效
+     *
+     * @param raw   数组
+     * @param start DataItem 在数组中的起始位置
+     */
+    static void setDataItemRawInvalid(byte[] raw, int start) {
+        raw[start + DataItemImpl.OF_VALID] = (byte) 1;
     }
 
 }
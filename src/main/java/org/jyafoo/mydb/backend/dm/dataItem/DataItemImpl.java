@@ -4,6 +4,7 @@ import org.jyafoo.mydb.backend.common.SubArray;
 import org.jyafoo.mydb.backend.dm.DataManagerImpl;
 import org.jyafoo.mydb.backend.dm.page.Page;
 
+import java.util.Arrays;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -98,9 +99,20 @@ public class DataItemImpl implements DataItem {
         wLock.unlock();
     }
 
+    /**
+     * 对比前相和当前数据，找出被修改的字节区间 [start, end)，只为这一段写更新日志。
+     * 常见的修改（如设置 XMAX）只改动几个字节，不需要记录整个数据项；没有修改时不写日志
+     */
     @Override
     public void after(long xid) {
-        dm.logDataItem(xid,this);
+        int start = Arrays.mismatch(oldRaw, 0, oldRaw.length, raw.raw, raw.start, raw.end);
+        if (start >= 0) {
+            int end = oldRaw.length;
+            while (oldRaw[end - 1] == raw.raw[raw.start + end - 1]) {
+                end--;
+            }
+            dm.logDataItem(xid, this, start, end);
+        }
         wLock.unlock();
     }
 
@@ -0,0 +1,179 @@
+package org.jyafoo.mydb.backend.dm.logger;
+
+import com.google.common.primitives.Bytes;
+import org.jyafoo.mydb.backend.utils.Panic;
+import org.jyafoo.mydb.backend.utils.Parser;
+import org.jyafoo.mydb.common.Error;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 旧格式日志文件的转换
+ * <p>
+ * 最早的格式为：[XChecksum] [Log1] [Log2] ... [LogN] [BadTail]，每条日志为 [Size] [Checksum] [Data]，
+ * 校验和以 SEED 为乘数逐字节累加，XChecksum 为所有完整日志的总校验和。
+ * 第二版为单文件：[Magic] [Version 2] [Log1] ... [LogN] [BadTail]，每条日志为 [Size] [CRC32C] [LSN] [Data]。
+ * 打开旧格式的日志文件时，按旧规则校验并丢弃 BadTail，把有效日志重新写成第一个段，再原子替换为控制文件
+ *
+ * @author jyafoo
+ * @since 2024/10/12
+ */
+class LegacyLog {
+
+    /**
+     * 种子值：用于计算最早格式的校验和
+     */
+    private static final int SEED = 13331;
+
+    /**
+     * 最早格式单条日志头的长度：[Size 4] [Checksum 4]
+     */
+    private static final int LEGACY_OF_DATA = 8;
+
+    /**
+     * 单文件格式的版本号和文件头长度：[Magic 4] [Version 4]
+     */
+    private static final int SINGLE_FILE_VERSION = 2;
+    private static final int SINGLE_FILE_HEADER_SIZE = 8;
+
+    /**
+     * 判断日志文件是否为旧格式：文件头不是魔数，或者是单文件格式的版本号
+     */
+    static boolean isLegacy(File logFile) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(logFile))) {
+            return in.readInt() != LoggerImpl.MAGIC || in.readInt() == SINGLE_FILE_VERSION;
+        } catch (EOFException e) {
+            // 文件头不完整，交给 LoggerImpl.init 报告文件损坏
+            return false;
+        } catch (IOException e) {
+            Panic.panic(e);
+            return false;
+        }
+    }
+
+    /**
+     * 将旧格式的日志文件转换为分段格式
+     * <p>
+     * 先写入第一个段并刷盘，再用临时文件原子替换为控制文件。替换前崩溃时原日志不变，下次打开会重新转换
+     *
+     * @param path    日志文件的路径
+     * @param logFile 旧格式的日志文件
+     */
+    static void migrate(String path, File logFile) {
+        for (long seq = 1; LoggerImpl.segmentFile(path, seq).exists(); seq++) {
+            LoggerImpl.segmentFile(path, seq).delete();
+        }
+
+        long length = logFile.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+             FileOutputStream fos = new FileOutputStream(LoggerImpl.segmentFile(path, 0));
+             BufferedOutputStream out = new BufferedOutputStream(fos)) {
+            out.write(LogSegment.header(0));
+            int first = in.readInt();
+            if (first == LoggerImpl.MAGIC) {
+                in.readInt();
+                copySingleFile(in, out, length);
+            } else {
+                copyChecksummed(in, out, length, first);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+
+        File tmp = new File(logFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            fos.write(LoggerImpl.control(0));
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+
+        // POSIX 上 rename 会原子地替换原文件；不允许覆盖的平台上先删除原文件，崩溃时临时文件中仍有完整的控制信息
+        if (!tmp.renameTo(logFile)) {
+            if (!logFile.delete() || !tmp.renameTo(logFile)) {
+                Panic.panic(Error.FileCannotRWException);
+            }
+        }
+    }
+
+    /**
+     * 复制最早格式的日志，按逐条校验和与总校验和校验
+     *
+     * @param xChecksum 文件头中的总校验和
+     */
+    private static void copyChecksummed(DataInputStream in, BufferedOutputStream out, long length, int xChecksum) throws IOException {
+        long pos = 4;
+        long lsn = LogSegment.HEADER_SIZE;
+        int xChecksumTemp = 0;
+        while (pos + LEGACY_OF_DATA < length) {
+            int size = in.readInt();
+            int checksum = in.readInt();
+            if (size < 0 || pos + LEGACY_OF_DATA + size > length) {
+                break;
+            }
+            byte[] data = new byte[size];
+            in.readFully(data);
+            if (calChecksum(0, data) != checksum) {
+                break;
+            }
+            xChecksumTemp = calChecksum(xChecksumTemp, Bytes.concat(Parser.int2Byte(size), Parser.int2Byte(checksum), data));
+
+            out.write(LoggerImpl.wrapLog(lsn, data));
+            lsn += LoggerImpl.OF_DATA + size;
+            pos += LEGACY_OF_DATA + size;
+        }
+        if (xChecksumTemp != xChecksum) {
+            Panic.panic(Error.BadLogFileException);
+        }
+    }
+
+    /**
+     * 复制单文件格式的日志，LSN 与位置不符或 CRC32C 不匹配处为 BadTail
+     */
+    private static void copySingleFile(DataInputStream in, BufferedOutputStream out, long length) throws IOException {
+        long pos = SINGLE_FILE_HEADER_SIZE;
+        long lsn = LogSegment.HEADER_SIZE;
+        while (pos + LoggerImpl.OF_DATA <= length) {
+            byte[] head = new byte[LoggerImpl.OF_DATA];
+            in.readFully(head);
+            int size = Parser.parseInt(head);
+            if (size < 0 || pos + LoggerImpl.OF_DATA + size > length) {
+                break;
+            }
+            byte[] log = new byte[LoggerImpl.OF_DATA + size];
+            System.arraycopy(head, 0, log, 0, head.length);
+            in.readFully(log, head.length, size);
+            if (Parser.parseLong(Arrays.copyOfRange(log, 8, LoggerImpl.OF_DATA)) != pos
+                    || LoggerImpl.checksum(log) != Parser.parseInt(Arrays.copyOfRange(log, 4, 8))) {
+                break;
+            }
+
+            out.write(LoggerImpl.wrapLog(lsn, Arrays.copyOfRange(log, LoggerImpl.OF_DATA, log.length)));
+            lsn += log.length;
+            pos += log.length;
+        }
+    }
+
+    /**
+     * 按最早格式计算校验和
+     *
+     * @param xCheck 初始校验和值，为0说明计算一条日志的校验和
+     * @param log    需要计算校验和的数据
+     */
+    static int calChecksum(int xCheck, byte[] log) {
+        for (byte b : log) {
+            xCheck = xCheck * SEED + b;
+        }
+        return xCheck;
+    }
+}
@@ -0,0 +1,176 @@
+package org.jyafoo.mydb.backend.dm.logger;
+
+import com.google.common.primitives.Bytes;
+import org.jyafoo.mydb.backend.utils.Panic;
+import org.jyafoo.mydb.backend.utils.Parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 日志段文件
+ * <p>
+ * 段文件格式为：[Magic] [Version] [StartLSN] [Log1] [Log2] ... [LogN] [BadTail]
+ * StartLSN 为段文件第0个字节对应的LSN，段内日志的LSN为 StartLSN 加上日志在文件中的偏移。
+ * 新段的 StartLSN 等于上一个段有效日志的末尾，读取时据此判断两个段是否相连
+ *
+ * @author jyafoo
+ * @since 2024/10/12
+ */
+class LogSegment {
+
+    /**
+     * 段文件头的长度：[Magic 4] [Version 4] [StartLSN 8]
+     */
+    static final int HEADER_SIZE = 16;
+
+    /**
+     * 段序号，对应文件名的后缀
+     */
+    final long seq;
+
+    /**
+     * 段文件第0个字节对应的LSN
+     */
+    final long start;
+
+    final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+
+    /**
+     * 读取日志时的文件大小，在重置读取位置时记录
+     */
+    long limit;
+
+    private LogSegment(long seq, long start, File file, RandomAccessFile randomAccessFile) {
+        this.seq = seq;
+        this.start = start;
+        this.file = file;
+        this.randomAccessFile = randomAccessFile;
+        this.fileChannel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * 创建一个新段，文件已存在时（回收的旧段）直接覆盖文件头，旧数据的LSN与新段不符，读取时会被识别为无效日志
+     *
+     * @param file  段文件
+     * @param seq   段序号
+     * @param start 段的起始LSN
+     */
+    static LogSegment create(File file, long seq, long start) {
+        LogSegment segment = null;
+        try {
+            segment = new LogSegment(seq, start, file, new RandomAccessFile(file, "rw"));
+            segment.fileChannel.write(ByteBuffer.wrap(header(start)), 0);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        return segment;
+    }
+
+    /**
+     * 打开已有的段文件
+     *
+     * @return 段对象；文件头不完整或不合法时返回null
+     */
+    static LogSegment open(File file, long seq) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+            raf.getChannel().read(buf, 0);
+            byte[] header = buf.array();
+            if (buf.position() < HEADER_SIZE
+                    || Parser.parseInt(header) != LoggerImpl.MAGIC
+                    || Parser.parseInt(Arrays.copyOfRange(header, 4, 8)) != LoggerImpl.VERSION) {
+                raf.close();
+                return null;
+            }
+            long start = Parser.parseLong(Arrays.copyOfRange(header, 8, 16));
+            return new LogSegment(seq, start, file, raf);
+        } catch (IOException e) {
+            Panic.panic(e);
+            return null;
+        }
+    }
+
+    static byte[] header(long start) {
+        return Bytes.concat(Parser.int2Byte(LoggerImpl.MAGIC), Parser.int2Byte(LoggerImpl.VERSION), Parser.long2Byte(start));
+    }
+
+    /**
+     * 从指定LSN处读满缓冲区，到达文件末尾时提前返回
+     */
+    void read(ByteBuffer buf, long lsn) {
+        long offset = lsn - start;
+        try {
+            while (buf.hasRemaining()) {
+                if (fileChannel.read(buf, offset + buf.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 把缓冲区写入指定LSN处
+     */
+    void write(ByteBuffer buf, long lsn) {
+        long offset = lsn - start;
+        try {
+            while (buf.hasRemaining()) {
+                fileChannel.write(buf, offset + buf.position());
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    void force() {
+        try {
+            fileChannel.force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 截断段文件，之后的日志从指定LSN开始追加
+     */
+    void truncate(long lsn) {
+        try {
+            fileChannel.truncate(Math.max(HEADER_SIZE, lsn - start));
+            fileChannel.force(false);
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 段文件的末尾对应的LSN
+     */
+    long end() {
+        try {
+            return start + fileChannel.size();
+        } catch (IOException e) {
+            Panic.panic(e);
+            return 0;
+        }
+    }
+
+    void close() {
+        try {
+            fileChannel.close();
+            randomAccessFile.close();
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+}
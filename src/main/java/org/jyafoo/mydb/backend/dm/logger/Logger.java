@@ -1,7 +1,8 @@
 package org.jyafoo.mydb.backend.dm.logger;
 
+import org.jyafoo.mydb.backend.common.IoStats;
+import org.jyafoo.mydb.backend.common.SubArray;
 import org.jyafoo.mydb.backend.utils.Panic;
-import org.jyafoo.mydb.backend.utils.Parser;
 import org.jyafoo.mydb.common.Error;
 
 import java.io.File;
@@ -20,16 +21,30 @@ import java.nio.channels.FileChannel;
 public interface Logger {
 
     /**
-     * 将日志写入文件
+     * 将日志写入文件，日志持久化之后返回
      *
      * @param data 要记录的原始日志数据
+     * @return 日志的LSN
      */
-    void log(byte[] data);
+    long log(byte[] data);
 
     /**
-     * 截断文件，使其长度为指定的字节数
+     * 写入日志，日志进入刷盘队列后立即返回，不等待刷盘
      *
-     * @param x 指定文件的新长度，单位为字节
+     * @param data 原始日志数据
+     * @return 日志的LSN
+     */
+    long logAsync(byte[] data);
+
+    /**
+     * 等待已写入的日志全部刷盘
+     */
+    void flush();
+
+    /**
+     * 截断日志，之后的日志从指定LSN开始追加
+     *
+     * @param x 截断位置的LSN
      * @throws Exception 截断操作过程中发生I/O错误，或者文件不存在等异常情况
      */
     void truncate(long x) throws Exception;
@@ -42,21 +57,81 @@ public interface Logger {
     byte[] next();
 
     /**
-     * 重置文件指针到起始位置，即xCheckSum后的第一条日志
+     * 迭代器模式获取下一个日志条目的视图，不复制日志数据
+     * <p>
+     * 视图指向日志内部的读缓冲区，只在下一次读取日志之前有效，需要保留时由调用方复制
+     *
+     * @return 排除前导信息后的日志数据视图，没有更多日志时返回null
+     */
+    SubArray nextView();
+
+    /**
+     * 获取最近一次 next 或 nextView 读出的日志的LSN
+     */
+    long lastLsn();
+
+    /**
+     * 重置文件指针到起始位置，即最早保留的段中的第一条日志
      */
     void rewind();
 
+    /**
+     * 把文件指针移动到指定LSN，之后从这里开始读取日志；早于最早保留的段时从第一条日志开始
+     *
+     * @param lsn 日志的LSN
+     */
+    void seek(long lsn);
+
+    /**
+     * 获取已持久化的日志末尾的LSN，在这之前写入的日志都已经刷盘
+     */
+    long getEndLsn();
+
+    /**
+     * 指定查找有效日志末尾时开始扫描的位置，不指定时从第一条日志开始扫描
+     * <p>
+     * 正常关闭后打开时没有恢复过程确定日志末尾，第一次写日志前需要扫描一遍；
+     * 从最近一次检查点日志开始扫描，只需要校验检查点之后的日志
+     *
+     * @param lsn 一条已持久化的日志的LSN，例如最近一次检查点日志
+     */
+    void scanFrom(long lsn);
+
+    /**
+     * 回收完全位于指定LSN之前的段，恢复不再需要这些日志
+     *
+     * @param lsn 恢复需要的最早的LSN
+     */
+    void truncateBefore(long lsn);
+
     /**
      * 关闭读写资源
      */
     void close();
 
+    /**
+     * 获取日志写入和刷盘的统计信息，不支持统计的实现返回null
+     */
+    default IoStats stats() {
+        return null;
+    }
+
     /**
      * 创建日志对象
      * @param path 日志文件的路径，用于创建日志文件
      * @return LoggerImpl对象，用于操作日志
      */
     static Logger create(String path) {
+        return create(path, LoggerImpl.SEGMENT_SIZE);
+    }
+
+    /**
+     * 创建日志对象
+     * @param path        日志文件的路径，用于创建日志文件
+     * @param segmentSize 段大小，单位字节
+     * @return LoggerImpl对象，用于操作日志
+     */
+    static Logger create(String path, long segmentSize) {
         File logFile = new File(path + LoggerImpl.LOG_SUFFIX);
 
         try {
@@ -79,7 +154,9 @@ public interface Logger {
             Panic.panic(e);
         }
 
-        ByteBuffer buf = ByteBuffer.wrap(Parser.int2Byte(0));
+        // 先创建第一个段，再写控制文件
+        LoggerImpl.initSegments(path);
+        ByteBuffer buf = ByteBuffer.wrap(LoggerImpl.control(0));
         try {
             fileChannel.position(0);
             fileChannel.write(buf);
@@ -88,7 +165,9 @@ public interface Logger {
             Panic.panic(e);
         }
 
-        return new LoggerImpl(randomAccessFile,fileChannel);
+        LoggerImpl logger = new LoggerImpl(path, randomAccessFile, fileChannel, segmentSize);
+        logger.init();
+        return logger;
     }
 
     /**
@@ -97,6 +176,16 @@ public interface Logger {
      * @return LoggerImpl对象，用于操作日志
      */
     static Logger open(String path) {
+        return open(path, LoggerImpl.SEGMENT_SIZE);
+    }
+
+    /**
+     * 打开日志文件并返回对应的Logger对象
+     * @param path        日志文件的路径，用于打开日志文件
+     * @param segmentSize 段大小，单位字节
+     * @return LoggerImpl对象，用于操作日志
+     */
+    static Logger open(String path, long segmentSize) {
         File logFile = new File(path + LoggerImpl.LOG_SUFFIX);
         if (!logFile.exists()) {
             Panic.panic(Error.FileNotExistsException);
@@ -106,6 +195,11 @@ public interface Logger {
             Panic.panic(Error.FileCannotRWException);
         }
 
+        // 旧格式的单文件日志先转换为分段格式
+        if (LegacyLog.isLegacy(logFile)) {
+            LegacyLog.migrate(path, logFile);
+        }
+
         FileChannel fileChannel = null;
         RandomAccessFile randomAccessFile = null;
         try {
@@ -115,7 +209,7 @@ public interface Logger {
             Panic.panic(e);
         }
 
-        LoggerImpl logger = new LoggerImpl(randomAccessFile, fileChannel);
+        LoggerImpl logger = new LoggerImpl(path, randomAccessFile, fileChannel, segmentSize);
         logger.init();
         return logger;
     }
@@ -1,24 +1,44 @@
 package org.jyafoo.mydb.backend.dm.logger;
 
 import com.google.common.primitives.Bytes;
+import org.jyafoo.mydb.backend.common.IoMetrics;
+import org.jyafoo.mydb.backend.common.IoStats;
+import org.jyafoo.mydb.backend.common.SubArray;
 import org.jyafoo.mydb.backend.utils.Panic;
 import org.jyafoo.mydb.backend.utils.Parser;
 import org.jyafoo.mydb.common.Error;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
 
 /**
  * 日志文件读写
  * <p>
- * 日志文件标准格式为：
- * [XChecksum] [Log1] [Log2] ... [LogN] [BadTail]
- * XChecksum 为后续所有日志计算的Checksum，int类型
+ * 日志分段存储：控制文件（.log）记录 [Magic] [Version] [FirstSeq]，日志写在序号连续的段文件（.log.000000 等）中，
+ * FirstSeq 为最早仍需保留的段。段文件格式见 LogSegment，当前段超过 segmentSize 后，下一批日志写入新段。
+ * 检查点之后，完全位于所需LSN之前的段被回收（重命名为将来的段文件，覆盖写入）或删除
+ * <p>
+ * 读日志时按块顺序读入读缓冲区，日志直接在缓冲区中校验，并以视图的形式交给调用者，不为每条日志分配数组。
+ * <p>
+ * 每条日志自带 CRC32C 校验和以及 LSN。读取日志时遇到长度越界、LSN 与所在位置不符或校验和不匹配的日志，
+ * 如果下一个段恰好从这里开始则继续读下一个段，否则认为到达了 BadTail。
+ * 不需要像旧格式那样读完整个文件校验总校验和，追加日志也只是顺序写，不再改写文件头
+ * <p>
+ * 写日志采用组提交：调用 log 的线程把日志放入队列后等待，由后台刷盘线程把队列中积累的日志一次性连续写入文件，
+ * 只 force 一次，再统一唤醒这一批的调用者。并发写日志的会话越多，每次 force 分摊的日志越多
  *
  * @author jyafoo
  * @since 2024/10/1
@@ -26,62 +46,194 @@ import java.util.concurrent.locks.ReentrantLock;
 public class LoggerImpl implements Logger {
 
     /**
-     * 种子值：用于计算校验和
+     * 日志文件的魔数和格式版本，各4字节
+     */
+    static final int MAGIC = 0x4D594C47;
+    static final int VERSION = 3;
+
+    /**
+     * 控制文件的长度：[Magic 4] [Version 4] [FirstSeq 8]
+     */
+    static final int CONTROL_SIZE = 16;
+    private static final int OF_FIRST_SEQ = 8;
+
+    /**
+     * 默认的段大小，单位字节
      */
-    private static final int SEED = 13331;
+    public static final long SEGMENT_SIZE = 16 << 20;
 
-    // 每条正确日志的格式为：[Size] [Checksum] [Data]
+    /**
+     * 最多保留的回收段文件个数，超出的旧段直接删除
+     */
+    private static final int RECYCLE_LIM = 2;
+
+    // 每条正确日志的格式为：[Size] [Checksum] [LSN] [Data]
     /**
      * 单条日志data段的长度，4字节表示，从第0个字节开始算
      */
     private static final int OF_SIZE = 0;
     /**
-     * 单条日志的校验和，通过指定的种子实现，4字节表示，从第4个字节开始算
+     * 单条日志的 CRC32C 校验和，覆盖 Size、LSN 和 Data，4字节表示，从第4个字节开始算
      */
     private static final int OF_CHECKSUM = OF_SIZE + 4;
     /**
-     * 单条日志的数据段，从第8个字节开始算
+     * 单条日志的LSN，8字节表示，从第8个字节开始算
+     */
+    private static final int OF_LSN = OF_CHECKSUM + 4;
+    /**
+     * 单条日志的数据段，从第16个字节开始算
      */
-    private static final int OF_DATA = OF_CHECKSUM + 4;
+    static final int OF_DATA = OF_LSN + 8;
 
     /**
      * 日志文件的后缀
      */
     public static final String LOG_SUFFIX = ".log";
 
-    // 文件读写相关对象
+    private final String path;
+
+    // 控制文件读写相关对象
     private RandomAccessFile randomAccessFile;
     private FileChannel fileChannel;
     private Lock lock;  // 用于并发控制的锁
 
     /**
-     * 当前日志指针的位置
+     * 段大小
+     */
+    private final long segmentSize;
+
+    /**
+     * 保留的段，key为段的起始LSN
+     */
+    private final ConcurrentSkipListMap<Long, LogSegment> segments;
+
+    /**
+     * 已存在的段文件（包括回收留下的将来的段文件）的最大序号
+     */
+    private long maxSeq;
+
+    /**
+     * 当前日志指针的位置（LSN）
      */
     private long position;
+
+    /**
+     * 最近一次读出的日志的LSN
+     */
+    private long lastLsn;
+
+    /**
+     * 查找有效日志末尾时开始扫描的位置
+     */
+    private long scanStart;
+
+    /**
+     * 顺序读日志时每次读入的字节数
+     */
+    private static final int READ_CHUNK = 1 << 20;
+
+    /**
+     * 读缓冲区：保存 windowSegment 中从 windowStart 开始的一段日志，读取时按块顺序读入，日志直接在缓冲区中校验和解码
+     */
+    private ByteBuffer window;
+    private LogSegment windowSegment;
+    private long windowStart;
+
+    /**
+     * 读日志时复用的校验和对象和日志视图
+     */
+    private final CRC32C readCrc;
+    private final SubArray view;
+
+    /**
+     * 等待写入的日志队列，以及保护队列和LSN的锁
+     */
+    private List<byte[]> pending;
+    private final Lock queueLock;
     /**
-     * 日志文件的大小，初始化时记录，后续日志操作不更新此值
+     * 队列中有新日志时唤醒刷盘线程
      */
-    private long fileSize;
+    private final Condition hasPending;
+    /**
+     * 一批日志刷盘完成后唤醒等待的调用者
+     */
+    private final Condition batchDone;
+    /**
+     * 下一条日志的LSN，即日志末尾的位置；在找到有效日志的末尾之前为-1
+     */
+    private long nextLsn;
+    /**
+     * 已经持久化的日志末尾的位置，在找到有效日志的末尾之前为-1
+     */
+    private volatile long durableLsn;
+
+    private volatile boolean running;
+    private final Thread flusher;
+
     /**
-     * 整个日志文件的Checksum之和，用于检测文件的完整性，4字节表示
+     * 写入和刷盘的计数器，以及调用者在 log 中花费的总时间和写入的批次数
      */
-    private int xChecksum;
+    private final IoMetrics metrics = new IoMetrics();
+    private final LongAdder logMicros = new LongAdder();
+    private final LongAdder batches = new LongAdder();
 
-    LoggerImpl(RandomAccessFile randomAccessFile, FileChannel fileChannel) {
+    LoggerImpl(String path, RandomAccessFile randomAccessFile, FileChannel fileChannel, long segmentSize) {
+        this.path = path;
         this.randomAccessFile = randomAccessFile;
         this.fileChannel = fileChannel;
+        this.segmentSize = segmentSize;
+        this.segments = new ConcurrentSkipListMap<>();
+        this.nextLsn = -1;
+        this.durableLsn = -1;
         lock = new ReentrantLock();
+        window = ByteBuffer.allocate(READ_CHUNK);
+        readCrc = new CRC32C();
+        view = new SubArray(null, 0, 0);
+
+        pending = new ArrayList<>();
+        queueLock = new ReentrantLock();
+        hasPending = queueLock.newCondition();
+        batchDone = queueLock.newCondition();
+        running = true;
+        flusher = new Thread(this::flushLoop, "log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
     }
 
-    LoggerImpl(RandomAccessFile randomAccessFile, FileChannel fileChannel, int xChecksum) {
-        this.randomAccessFile = randomAccessFile;
-        this.fileChannel = fileChannel;
-        this.xChecksum = xChecksum;
-        lock = new ReentrantLock();
+    /**
+     * 生成控制文件的内容
+     *
+     * @param firstSeq 最早仍需保留的段序号
+     */
+    static byte[] control(long firstSeq) {
+        return Bytes.concat(Parser.int2Byte(MAGIC), Parser.int2Byte(VERSION), Parser.long2Byte(firstSeq));
+    }
+
+    /**
+     * 段文件的路径
+     */
+    static File segmentFile(String path, long seq) {
+        return new File(path + LOG_SUFFIX + "." + String.format("%06d", seq));
     }
 
     /**
-     * 初始化日志文件，验证其完整性和校验和
+     * 为新建的日志创建第一个段，同名的旧段文件全部删除
+     */
+    static void initSegments(String path) {
+        for (long seq = 0; segmentFile(path, seq).exists(); seq++) {
+            if (!segmentFile(path, seq).delete()) {
+                Panic.panic(Error.FileCannotRWException);
+            }
+        }
+        LogSegment segment = LogSegment.create(segmentFile(path, 0), 0, 0);
+        segment.force();
+        segment.close();
+    }
+
+    /**
+     * 初始化日志：校验控制文件，打开保留的段
+     * <p>
+     * 有效日志的末尾在恢复过程第一次读到日志末尾时确定，如果在此之前写日志，则先扫描一遍找到末尾
      */
     void init() {
         long size = 0;
@@ -91,211 +243,567 @@ public class LoggerImpl implements Logger {
             Panic.panic(e);
         }
 
-        // 检查文件大小是否小于4字节，如果是，则认为日志文件不完整，因为xCheckSum就占有4字节
-        if (size < 4) {
+        if (size < CONTROL_SIZE) {
             Panic.panic(Error.BadLogFileException);
         }
 
-        ByteBuffer raw = ByteBuffer.allocate(4);
+        ByteBuffer raw = ByteBuffer.allocate(CONTROL_SIZE);
         try {
-            fileChannel.position(0);
-            fileChannel.read(raw);
+            fileChannel.read(raw, 0);
         } catch (IOException e) {
             Panic.panic(e);
         }
+        byte[] header = raw.array();
+        if (Parser.parseInt(header) != MAGIC
+                || Parser.parseInt(Arrays.copyOfRange(header, 4, 8)) != VERSION) {
+            Panic.panic(Error.BadLogFileException);
+        }
+        long firstSeq = Parser.parseLong(Arrays.copyOfRange(header, OF_FIRST_SEQ, CONTROL_SIZE));
 
-        int xChecksum = Parser.parseInt(raw.array());
-        this.fileSize = size;
-        this.xChecksum = xChecksum;
+        // 先更新控制文件再删除旧段，删除前崩溃会留下旧段文件
+        for (long seq = firstSeq - 1; seq >= 0 && segmentFile(path, seq).exists(); seq--) {
+            segmentFile(path, seq).delete();
+        }
 
-        checkAndRemoveBadTail();
+        // 依次打开段文件，起始LSN不再递增的是回收留下的将来的段文件
+        long seq = firstSeq;
+        while (segmentFile(path, seq).exists()) {
+            LogSegment segment = LogSegment.open(segmentFile(path, seq), seq);
+            if (segment == null) {
+                break;
+            }
+            if (!segments.isEmpty() && segment.start <= segments.lastKey()) {
+                segment.close();
+                break;
+            }
+            segments.put(segment.start, segment);
+            seq++;
+        }
+        if (segments.isEmpty()) {
+            Panic.panic(Error.BadLogFileException);
+        }
+        while (segmentFile(path, seq).exists()) {
+            seq++;
+        }
+        maxSeq = seq - 1;
+
+        rewind();
     }
 
     /**
-     * 检查并移除 BadTail。
-     * <p>
-     * BadTail 是在数据库崩溃时，没有来得及写完的日志数据，这个 BadTail 不一定存在
+     * 在读缓冲区中定位指定位置的一条日志，并校验长度、LSN和校验和
+     *
+     * @param segment 日志所在的段
+     * @param pos     日志的LSN
+     * @return 整条日志的长度；到达段末尾或日志无效时返回-1
      */
-    private void checkAndRemoveBadTail() {
-        // 1、重置指针位置到第一条日志
-        rewind();
+    private int readLog(LogSegment segment, long pos) {
+        // 1、先确保日志头在缓冲区中，检查长度和LSN
+        if (!fill(segment, pos, OF_DATA)) {
+            return -1;
+        }
+        byte[] buf = window.array();
+        int off = (int) (pos - windowStart);
+        int size = Parser.parseInt(buf, off + OF_SIZE);
+        if (size < 0 || pos + OF_DATA + size > segment.limit) {
+            return -1;
+        }
+        if (Parser.parseLong(buf, off + OF_LSN) != pos) {
+            // LSN 与位置不符：残留的旧数据
+            return -1;
+        }
 
-        // 2、计算并比对总校验和
-        int xChecksumTemp = 0;
-        while (true) {
-            byte[] log = internNext();
-            if (log == null) {
-                break;
-            }
-            xChecksumTemp = calChecksum(xChecksumTemp, log);
+        // 2、确保整条日志在缓冲区中，计算校验和，并与日志中的校验和进行比较
+        if (!fill(segment, pos, OF_DATA + size)) {
+            return -1;
         }
-        if (xChecksumTemp != this.xChecksum) {
-            // 如果不匹配，说明日志文件损坏，抛出异常
-            Panic.panic(Error.BadLogFileException);
+        buf = window.array();
+        off = (int) (pos - windowStart);
+        if (checksum(readCrc, buf, off, OF_DATA + size) != Parser.parseInt(buf, off + OF_CHECKSUM)) {
+            return -1;
         }
+        return OF_DATA + size;
+    }
 
-        // 3、尝试修剪日志文件，使其长度变为当前position，以删除可能的无效尾部
-        try {
-            truncate(position);
-        } catch (Exception e) {
-            Panic.panic(e);
+    /**
+     * 保证读缓冲区中包含段中从指定位置开始的 length 个字节，不包含时从该位置开始顺序读入一整块
+     *
+     * @return 段中没有这么多数据时返回false
+     */
+    private boolean fill(LogSegment segment, long pos, int length) {
+        if (windowSegment == segment && pos >= windowStart && pos + length <= windowStart + window.limit()) {
+            return true;
+        }
+        if (pos + length > segment.limit) {
+            return false;
         }
+        if (window.capacity() < length) {
+            window = ByteBuffer.allocate(length);
+        }
+        window.clear();
+        window.limit((int) Math.min(window.capacity(), segment.limit - pos));
+        segment.read(window, pos);
+        window.flip();
+        windowSegment = segment;
+        windowStart = pos;
+        return window.limit() >= length;
+    }
 
-        // 4、将文件指针移动到position位置，为下一次读取或写入操作做准备
-        try {
-            randomAccessFile.seek(position);
-        } catch (IOException e) {
-            Panic.panic(e);
+    /**
+     * 读取下一条日志信息，当前段读完时，如果下一个段恰好从当前位置开始，则继续读下一个段
+     *
+     * @return 日志在读缓冲区中的视图；没有更多日志时返回null
+     */
+    private SubArray internNext() {
+        while (true) {
+            Map.Entry<Long, LogSegment> entry = segments.floorEntry(position);
+            if (entry == null) {
+                return null;
+            }
+            LogSegment segment = entry.getValue();
+            position = Math.max(position, segment.start + LogSegment.HEADER_SIZE);
+            int length = readLog(segment, position);
+            if (length >= 0) {
+                view.raw = window.array();
+                view.start = (int) (position - windowStart);
+                view.end = view.start + length;
+                lastLsn = position;
+                position += length;
+                return view;
+            }
+            Long next = segments.higherKey(segment.start);
+            if (next == null || next != position) {
+                return null;
+            }
         }
+    }
 
-        // 5、重置指针位置到第一条日志
-        rewind();
+    /**
+     * 计算单条日志的 CRC32C 校验和，覆盖除校验和字段以外的所有字节
+     *
+     * @param log 完整的日志
+     */
+    static int checksum(byte[] log) {
+        return checksum(new CRC32C(), log, 0, log.length);
     }
 
     /**
-     * 读取下一条日志信息
+     * 计算数组中一条日志的 CRC32C 校验和
      *
-     * @return 日志信息
+     * @param crc    复用的校验和对象
+     * @param buf    日志所在的数组
+     * @param off    日志在数组中的起始位置
+     * @param length 整条日志的长度
      */
-    private byte[] internNext() {
-        // 1、检查文件末尾，如果达到文件末尾则返回null
-        if (position + OF_DATA >= fileSize) {
-            return null;
-        }
+    private static int checksum(CRC32C crc, byte[] buf, int off, int length) {
+        crc.reset();
+        crc.update(buf, off + OF_SIZE, OF_CHECKSUM - OF_SIZE);
+        crc.update(buf, off + OF_LSN, length - OF_LSN);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 将日志放入队列，等待它所在的批次写入并刷盘后返回
+     */
+    @Override
+    public long log(byte[] data) {
+        return internLog(data, true);
+    }
+
+    /**
+     * 将日志放入队列后立即返回。刷盘线程在队列非空时马上开始写入，日志通常在一次刷盘的时间内持久化
+     */
+    @Override
+    public long logAsync(byte[] data) {
+        return internLog(data, false);
+    }
 
-        // 2、读取下一条日志
-        // 2.1、先读size
-        ByteBuffer bufSize = ByteBuffer.allocate(4);
+    /**
+     * 将日志放入队列并唤醒刷盘线程
+     *
+     * @param data 原始日志数据
+     * @param wait 是否等待这条日志被持久化
+     * @return 日志的LSN
+     */
+    private long internLog(byte[] data, boolean wait) {
+        long start = System.nanoTime();
+        queueLock.lock();
         try {
-            fileChannel.position(position);
-            fileChannel.read(bufSize);
-        } catch (IOException e) {
-            Panic.panic(e);
-        }
-        int size = Parser.parseInt(bufSize.array());
-        if (position + size + OF_DATA > fileSize) {
-            return null;
+            if (nextLsn < 0) {
+                tailFound(scanTail());
+            }
+            // 1、当前段已满时开始一个新段
+            LogSegment last = segments.lastEntry().getValue();
+            if (nextLsn - last.start >= segmentSize) {
+                roll(last);
+            }
+
+            // 2、分配LSN，将数据包裹成日志格式
+            long lsn = nextLsn;
+            byte[] log = wrapLog(lsn, data);
+            nextLsn += log.length;
+
+            // 3、入队并唤醒刷盘线程，需要时等待这条日志被持久化
+            pending.add(log);
+            hasPending.signal();
+            while (wait && durableLsn < lsn + log.length) {
+                batchDone.awaitUninterruptibly();
+            }
+            return lsn;
+        } finally {
+            queueLock.unlock();
+            logMicros.add((System.nanoTime() - start) / 1000);
         }
+    }
 
-        // 2.2、读取整条日志
-        ByteBuffer bufData = ByteBuffer.allocate(OF_DATA + size);
+    /**
+     * 等待队列中已有的日志全部持久化，没有未刷盘的日志时直接返回
+     */
+    @Override
+    public void flush() {
+        queueLock.lock();
         try {
-            fileChannel.position(position);
-            fileChannel.read(bufData);
-        } catch (IOException e) {
-            Panic.panic(e);
+            long end = nextLsn;
+            while (durableLsn < end) {
+                batchDone.awaitUninterruptibly();
+            }
+        } finally {
+            queueLock.unlock();
         }
+    }
 
-        // 3、解析单条日志，计算校验和，并与数据条目中的校验和进行比较
-        byte[] log = bufData.array();
-        int checksum1 = calChecksum(0, Arrays.copyOfRange(log, OF_DATA, log.length));
-        int checkSum2 = Parser.parseInt(Arrays.copyOfRange(log, OF_CHECKSUM, OF_DATA));
-        if (checksum1 != checkSum2) {
-            return null;
+    /**
+     * 开始一个新段，新段的起始LSN为当前日志的末尾。有回收的段文件时直接覆盖使用
+     *
+     * @param last 当前的最后一个段
+     */
+    private void roll(LogSegment last) {
+        long seq = last.seq + 1;
+        LogSegment segment = LogSegment.create(segmentFile(path, seq), seq, nextLsn);
+        segments.put(segment.start, segment);
+        maxSeq = Math.max(maxSeq, seq);
+        nextLsn += LogSegment.HEADER_SIZE;
+    }
+
+    /**
+     * 从 scanStart 开始扫描，找到有效日志的末尾；scanStart 处不是有效日志时从第一条日志开始扫描
+     */
+    private long scanTail() {
+        lock.lock();
+        try {
+            long saved = position;
+            seek(scanStart);
+            if (internNext() == null) {
+                rewind();
+            }
+            while (internNext() != null) {
+            }
+            long tail = position;
+            position = saved;
+            return tail;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // 4、更新日志指针的位置
-        position += log.length;
-        return log;
+    /**
+     * 确定有效日志的末尾：截断之后的 BadTail，之后的日志从这里开始追加
+     *
+     * @param tail 有效日志的末尾
+     */
+    private void tailFound(long tail) {
+        queueLock.lock();
+        try {
+            if (nextLsn < 0) {
+                cut(tail);
+            }
+        } finally {
+            queueLock.unlock();
+        }
     }
 
     /**
-     * 计算单条日志的校验和
+     * 把日志截断到指定LSN：截断所在的段，删除之后的所有段文件
+     * <p>
+     * 必须截断而不是直接覆盖，否则新日志之后残留的完整旧日志可能恰好对齐，在下次恢复时被当作有效日志
      *
-     * @param xCheck 初始校验和值，为0说明计算一条日志的校验和
-     * @param log    需要计算校验和的某条日志数据
-     * @return 加入该条日志校验和的总校验和
+     * @param tail 截断位置
      */
-    private int calChecksum(int xCheck, byte[] log) {
-        // TODO (jyafoo,2024/10/1,17:29) Q4：为什么校验和是这么算的，有什么说法？
-        for (byte b : log) {
-            xCheck = xCheck * SEED + b;
+    private void cut(long tail) {
+        lock.lock();
+        try {
+            Map.Entry<Long, LogSegment> entry = segments.floorEntry(tail);
+            LogSegment segment = entry == null ? segments.firstEntry().getValue() : entry.getValue();
+            segment.truncate(tail);
+            // 截断后同一位置会写入新的日志，缓冲区中的内容失效
+            windowSegment = null;
+            while (segments.lastKey() > segment.start) {
+                segments.pollLastEntry().getValue().close();
+            }
+            for (long seq = segment.seq + 1; seq <= maxSeq; seq++) {
+                segmentFile(path, seq).delete();
+            }
+            maxSeq = segment.seq;
+            nextLsn = Math.max(tail, segment.start + LogSegment.HEADER_SIZE);
+            durableLsn = nextLsn;
+        } finally {
+            lock.unlock();
         }
-        return xCheck;
     }
 
+    /**
+     * 刷盘线程：每次取走队列中全部的日志作为一批写入，关闭时写完剩余日志后退出
+     */
+    private void flushLoop() {
+        while (true) {
+            List<byte[]> batch;
+            long end;
+            queueLock.lock();
+            try {
+                while (running && pending.isEmpty()) {
+                    hasPending.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                end = nextLsn;
+            } finally {
+                queueLock.unlock();
+            }
+
+            writeBatch(batch);
 
-    @Override
-    public void log(byte[] data) {
-        // 1、将数据包裹成日志格式
-        byte[] log = wrapLog(data);
-        ByteBuffer buf = ByteBuffer.wrap(log);
+            queueLock.lock();
+            try {
+                durableLsn = end;
+                batchDone.signalAll();
+            } finally {
+                queueLock.unlock();
+            }
+        }
+    }
 
-        // 2、写入文件
+    /**
+     * 把一批日志写入文件：同一个段中的日志是连续的，合并为一次写入，最后对写过的段各执行一次 force
+     *
+     * @param batch 已封装好的日志
+     */
+    private void writeBatch(List<byte[]> batch) {
         lock.lock();
         try {
-            fileChannel.position(fileChannel.size());
-            fileChannel.write(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
+            List<LogSegment> written = new ArrayList<>();
+            int i = 0;
+            while (i < batch.size()) {
+                long runStart = lsnOf(batch.get(i));
+                LogSegment segment = segments.floorEntry(runStart).getValue();
+                int j = i;
+                int length = 0;
+                while (j < batch.size() && segments.floorKey(lsnOf(batch.get(j))) == segment.start) {
+                    length += batch.get(j).length;
+                    j++;
+                }
+                ByteBuffer buf = ByteBuffer.allocate(length);
+                for (int k = i; k < j; k++) {
+                    buf.put(batch.get(k));
+                }
+                buf.flip();
+                segment.write(buf, runStart);
+                metrics.recordWrite(j - i, length);
+                written.add(segment);
+                i = j;
+            }
+            for (LogSegment segment : written) {
+                long start = System.nanoTime();
+                segment.force();
+                metrics.recordSync(start);
+            }
+            batches.increment();
         } finally {
             lock.unlock();
         }
+    }
 
-        // 3、更新文件的校验和
-        updateXChecksum(log);
+    private static long lsnOf(byte[] log) {
+        return Parser.parseLong(Arrays.copyOfRange(log, OF_LSN, OF_DATA));
     }
 
     /**
      * 将数据包裹成日志格式
      *
+     * @param lsn  日志的LSN
      * @param data 原始日志数据
-     * @return 封装后的日志数据，包括数据长度、校验和和原始数据
+     * @return 封装后的日志数据，包括数据长度、校验和、LSN和原始数据
      */
-    private byte[] wrapLog(byte[] data) {
-        byte[] checksum = Parser.int2Byte(calChecksum(0, data));
-        byte[] size = Parser.int2Byte(data.length);
-        return Bytes.concat(size, checksum, data);
+    static byte[] wrapLog(long lsn, byte[] data) {
+        byte[] log = Bytes.concat(Parser.int2Byte(data.length), new byte[4], Parser.long2Byte(lsn), data);
+        System.arraycopy(Parser.int2Byte(checksum(log)), 0, log, OF_CHECKSUM, 4);
+        return log;
     }
 
-    /**
-     * 更新日志文件的总校验和
-     *
-     * @param log 新增的已封装好的日志条目
-     */
-    private void updateXChecksum(byte[] log) {
-        this.xChecksum = calChecksum(this.xChecksum, log);
+    @Override
+    public void truncate(long x) throws Exception {
+        queueLock.lock();
         try {
-            fileChannel.position(0);
-            fileChannel.write(ByteBuffer.wrap(Parser.int2Byte(xChecksum)));
-            fileChannel.force(false);
-        } catch (IOException e) {
-            Panic.panic(e);
+            cut(x);
+        } finally {
+            queueLock.unlock();
         }
     }
 
     @Override
-    public void truncate(long x) throws Exception {
+    public long getEndLsn() {
+        long lsn = durableLsn;
+        if (lsn >= 0) {
+            return lsn;
+        }
+        queueLock.lock();
+        try {
+            if (nextLsn < 0) {
+                tailFound(scanTail());
+            }
+            return durableLsn;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    @Override
+    public void scanFrom(long lsn) {
         lock.lock();
         try {
-            fileChannel.truncate(x);
+            scanStart = lsn;
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * 回收或删除完全位于指定LSN之前的段：先把控制文件中的 FirstSeq 改为第一个保留的段并刷盘，再处理旧段文件
+     */
+    @Override
+    public void truncateBefore(long lsn) {
+        queueLock.lock();
+        lock.lock();
+        try {
+            List<LogSegment> removed = new ArrayList<>();
+            while (segments.size() > 1 && segments.higherKey(segments.firstKey()) <= lsn) {
+                removed.add(segments.pollFirstEntry().getValue());
+            }
+            if (removed.isEmpty()) {
+                return;
+            }
+            try {
+                fileChannel.write(ByteBuffer.wrap(control(segments.firstEntry().getValue().seq)), 0);
+                fileChannel.force(false);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+
+            long lastSeq = segments.lastEntry().getValue().seq;
+            for (LogSegment segment : removed) {
+                segment.close();
+                // 回收的段文件重命名为将来的段，滚动到该段时覆盖写入
+                if (maxSeq - lastSeq < RECYCLE_LIM && segment.file.renameTo(segmentFile(path, maxSeq + 1))) {
+                    maxSeq++;
+                } else {
+                    segment.file.delete();
+                }
+            }
+        } finally {
+            lock.unlock();
+            queueLock.unlock();
+        }
+    }
+
     @Override
     public byte[] next() {
+        SubArray log = nextView();
+        if (log == null) {
+            return null;
+        }
+        return Arrays.copyOfRange(log.raw, log.start, log.end);
+    }
+
+    @Override
+    public SubArray nextView() {
+        SubArray log;
         lock.lock();
         try {
-            byte[] log = internNext();
-            if (log == null) {
-                return null;
+            log = internNext();
+            if (log != null) {
+                log.start += OF_DATA;
             }
-            return Arrays.copyOfRange(log, OF_DATA, log.length);
         } finally {
             lock.unlock();
         }
+        if (log == null) {
+            // 顺序读到了有效日志的末尾
+            tailFound(position);
+        }
+        return log;
+    }
+
+    @Override
+    public long lastLsn() {
+        return lastLsn;
     }
 
     @Override
     public void rewind() {
-        // TODO (jyafoo,2024/10/1,11:48) Q3：这里为什么把position设置为4？A：跳过4字节的xCheckSum开始读取日志
-        position = 4;
+        seek(0);
+    }
+
+    @Override
+    public void seek(long lsn) {
+        for (LogSegment segment : segments.values()) {
+            segment.limit = segment.end();
+        }
+        windowSegment = null;
+        position = Math.max(lsn, segments.firstKey());
+    }
+
+    @Override
+    public IoStats stats() {
+        IoStats stats = metrics.snapshot("write-ahead log");
+        int depth;
+        queueLock.lock();
+        try {
+            depth = pending.size();
+        } finally {
+            queueLock.unlock();
+        }
+        long size = 0;
+        for (LogSegment segment : segments.values()) {
+            size += segment.end() - segment.start;
+        }
+        stats.put("queue depth", depth);
+        stats.put("batches", batches.sum());
+        stats.put("log time(us)", logMicros.sum());
+        stats.put("segments", segments.size());
+        stats.put("file size", size);
+        return stats;
     }
 
     @Override
     public void close() {
+        // 刷盘线程写完队列中剩余的日志后退出
+        queueLock.lock();
+        try {
+            running = false;
+            hasPending.signal();
+        } finally {
+            queueLock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+        for (LogSegment segment : segments.values()) {
+            segment.close();
+        }
         try {
             fileChannel.close();
             randomAccessFile.close();
@@ -1,6 +1,7 @@
 package org.jyafoo.mydb.backend.dm.page;
 
 import org.jyafoo.mydb.backend.dm.pageCache.PageCache;
+import org.jyafoo.mydb.backend.utils.Parser;
 import org.jyafoo.mydb.backend.utils.RandomUtil;
 
 import java.util.Arrays;
@@ -9,6 +10,13 @@ import java.util.Arrays;
  * 数据库文件的第一页，通常用作一些特殊用途，比如存储一些元数据，用来启动检查等
  * db启动时给100~107字节处填入一个随机字节，db关闭时将其拷贝到108~115字节
  * 用于判断上一次数据库是否正常关闭
+ * <p>
+ * 116~119字节记录数据库文件的页大小，创建时写入，打开时先读出再初始化页面缓存。为0表示默认页大小（旧版本文件）
+ * <p>
+ * 120~127字节记录最近一次检查点日志的LSN，128~131字节记录检查点时数据库文件的页数，恢复时先读取检查点日志确定重做的起点。
+ * 旧版本文件中均为0，即从第一条日志开始重做
+ * <p>
+ * 132~135字节为页面格式标志，创建时写入 FORMAT_PAGE_LSN，表示普通页记录了 PageLSN。旧版本文件中为0，恢复时总是重做
  *
  * @author jyafoo
  * @since 2024/9/30
@@ -24,17 +32,61 @@ public class PageOne {
      */
     private static final int LEN_VC = 8;
 
+    /**
+     * 页大小偏移量：第116字节，占4字节
+     */
+    private static final int OF_PAGE_SIZE = OF_VC + 2 * LEN_VC;
+
+    /**
+     * 打开数据库文件时需要先读取的第一页头部长度
+     */
+    public static final int HEADER_SIZE = OF_PAGE_SIZE + 4;
+
+    /**
+     * 检查点LSN偏移量：第120字节，占8字节
+     */
+    private static final int OF_CHECKPOINT_LSN = HEADER_SIZE;
+
+    /**
+     * 检查点页数偏移量：第128字节，占4字节
+     */
+    private static final int OF_CHECKPOINT_PAGES = OF_CHECKPOINT_LSN + 8;
+
+    /**
+     * 页面格式标志偏移量：第132字节，占4字节
+     */
+    private static final int OF_FORMAT = OF_CHECKPOINT_PAGES + 4;
+
+    /**
+     * 页面格式标志：普通页记录了 PageLSN
+     */
+    private static final int FORMAT_PAGE_LSN = 1;
+
     /**
      * 初始化原始字节数组，用于模拟页面缓存中的页面初始化过程.
      *
+     * @param pageSize 页大小
      * @return 初始化后的字节数组，其大小为页面大小.
      */
-    public static byte[] initRaw() {
-        byte[] raw = new byte[PageCache.PAGE_SIZE];
+    public static byte[] initRaw(int pageSize) {
+        byte[] raw = new byte[pageSize];
         setVcOpen(raw);
+        System.arraycopy(Parser.int2Byte(pageSize), 0, raw, OF_PAGE_SIZE, 4);
+        System.arraycopy(Parser.int2Byte(FORMAT_PAGE_LSN), 0, raw, OF_FORMAT, 4);
         return raw;
     }
 
+    /**
+     * 从第一页的头部读取数据库文件的页大小
+     *
+     * @param raw 第一页的数据，至少包含 HEADER_SIZE 字节
+     * @return 页大小
+     */
+    public static int getPageSize(byte[] raw) {
+        int pageSize = Parser.parseInt(Arrays.copyOfRange(raw, OF_PAGE_SIZE, OF_PAGE_SIZE + 4));
+        return pageSize == 0 ? PageCache.PAGE_SIZE : pageSize;
+    }
+
     /**
      * 对页对象设置 ValidCheck 开启标志
      *
@@ -96,4 +148,44 @@ public class PageOne {
         );
     }
 
+    /**
+     * 记录检查点日志的位置
+     *
+     * @param page  首页
+     * @param lsn   检查点日志的LSN
+     * @param pages 检查点时数据库文件的页数
+     */
+    public static void setCheckpoint(Page page, long lsn, int pages) {
+        page.setDirty(true);
+        byte[] raw = page.getData();
+        System.arraycopy(Parser.long2Byte(lsn), 0, raw, OF_CHECKPOINT_LSN, 8);
+        System.arraycopy(Parser.int2Byte(pages), 0, raw, OF_CHECKPOINT_PAGES, 4);
+    }
+
+    /**
+     * 获取最近一次检查点日志的LSN
+     *
+     * @param page 首页
+     */
+    public static long getCheckpointLsn(Page page) {
+        return Parser.parseLong(Arrays.copyOfRange(page.getData(), OF_CHECKPOINT_LSN, OF_CHECKPOINT_LSN + 8));
+    }
+
+    /**
+     * 获取最近一次检查点时数据库文件的页数
+     *
+     * @param page 首页
+     */
+    public static int getCheckpointPages(Page page) {
+        return Parser.parseInt(Arrays.copyOfRange(page.getData(), OF_CHECKPOINT_PAGES, OF_CHECKPOINT_PAGES + 4));
+    }
+
+    /**
+     * 数据库文件的普通页是否记录了 PageLSN
+     *
+     * @param page 首页
+     */
+    public static boolean hasPageLsn(Page page) {
+        return Parser.parseInt(page.getData(), OF_FORMAT) == FORMAT_PAGE_LSN;
+    }
 }
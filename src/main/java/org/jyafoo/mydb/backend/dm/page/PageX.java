@@ -1,6 +1,5 @@
 package org.jyafoo.mydb.backend.dm.page;
 
-import org.jyafoo.mydb.backend.dm.pageCache.PageCache;
 import org.jyafoo.mydb.backend.utils.Parser;
 
 import java.util.Arrays;
@@ -11,7 +10,13 @@ import java.util.Arrays;
  * 一个普通页面以一个 2 字节无符号数起始，表示这一页的空闲位置的偏移。剩下的部分都是实际存储的数据。
  * 所以对普通页的管理，基本都是围绕着对 FSO（Free Space Offset）进行的。
  * </p>
- * 普通页结构：[FreeSpaceOffset] [Data]。FreeSpaceOffset: 2字节 空闲位置开始偏移
+ * 普通页结构：[FreeSpaceOffset] [PageLSN] [Data]。FreeSpaceOffset: 2字节 空闲位置开始偏移；
+ * PageLSN: 8字节 最后一次修改这一页的日志的LSN，恢复时跳过页面已经包含的日志
+ * <p>
+ * 旧版本文件的页面没有 PageLSN，数据从第2字节开始，是否记录 PageLSN 由第一页的标志决定。
+ * 空闲位置偏移小于数据区起始位置时按数据区起始位置处理，不会覆盖已有数据，所以两种页面可以共用插入逻辑
+ * <p>
+ * 页大小由数据库文件决定，最大为32K，页内偏移按2字节无符号数解析
  *
  * @author jyafoo
  * @since 2024/9/30
@@ -24,22 +29,33 @@ public class PageX {
     private static final short OF_FREE = 0;
 
     /**
-     * 数据区域的起始位置，从第2字节开始
+     * PageLSN 的起始位置，2字节处，占8字节
      */
-    private static final short OF_DATA = 2;
+    private static final short OF_PAGE_LSN = 2;
+
+    /**
+     * 数据区域的起始位置，从第10字节开始
+     */
+    private static final short OF_DATA = OF_PAGE_LSN + 8;
 
     /**
      * 最大空闲空间大小，为页面大小减去数据偏移量，即能存普通页的剩余空间
+     *
+     * @param pageSize 页大小
+     * @return 最大空闲空间大小
      */
-    public static final int MAX_FREE_SPACE = PageCache.PAGE_SIZE - OF_DATA;
+    public static int maxFreeSpace(int pageSize) {
+        return pageSize - OF_DATA;
+    }
 
     /**
      * 初始化原始字节数组，设置空闲位置的偏移
      *
+     * @param pageSize 页大小
      * @return 初始化后的字节数组
      */
-    public static byte[] initRaw() {
-        byte[] raw = new byte[PageCache.PAGE_SIZE];
+    public static byte[] initRaw(int pageSize) {
+        byte[] raw = new byte[pageSize];
         setFSO(raw, OF_DATA);
         return raw;
     }
@@ -52,11 +68,11 @@ public class PageX {
      * @param raw  要插入的原始字节数组
      * @return 返回插入原始数据的偏移量
      */
-    public static short insert(Page page, byte[] raw) {
+    public static int insert(Page page, byte[] raw) {
         page.setDirty(true); // 插入操作后页面处于脏状态
-        short offset = getFSO(page.getData());
+        int offset = getFSO(page.getData());
         System.arraycopy(raw, 0, page.getData(), offset, raw.length);
-        setFSO(page.getData(), (short) (offset + raw.length));
+        setFSO(page.getData(), offset + raw.length);
         return offset;
     }
 
@@ -69,8 +85,8 @@ public class PageX {
      *               此方法将给定的FSO字段值转换为字节数组，并将其复制到原始数据数组中的特定位置
      *               这是为了确保数据包的FSO字段被正确更新，以便进行进一步的处理或传输
      */
-    private static void setFSO(byte[] raw, short ofData) {
-        System.arraycopy(Parser.short2Byte(ofData), 0, raw, OF_FREE, OF_DATA);
+    private static void setFSO(byte[] raw, int ofData) {
+        System.arraycopy(Parser.short2Byte((short) ofData), 0, raw, OF_FREE, 2);
     }
 
     /**
@@ -79,7 +95,7 @@ public class PageX {
      * @param page 内存页面
      * @return FSO字段
      */
-    public static short getFSO(Page page) {
+    public static int getFSO(Page page) {
         return getFSO(page.getData());
     }
 
@@ -89,8 +105,10 @@ public class PageX {
      * @param raw 数据区
      * @return FSO字段
      */
-    private static short getFSO(byte[] raw) {
-        return Parser.parseShort(Arrays.copyOfRange(raw, 0, 2));
+    private static int getFSO(byte[] raw) {
+        int fso = Short.toUnsignedInt(Parser.parseShort(Arrays.copyOfRange(raw, 0, 2)));
+        // 新建页面的写入不再立即刷盘，崩溃后可能读到全零的页面，此时视为空页
+        return fso < OF_DATA ? OF_DATA : fso;
     }
 
     /**
@@ -100,7 +118,32 @@ public class PageX {
      * @return 页面的空闲空间
      */
     public static int getFreeSpace(Page page) {
-        return PageCache.PAGE_SIZE - getFSO(page.getData());
+        return page.getData().length - getFSO(page.getData());
+    }
+
+    /**
+     * 获取页面的 PageLSN，从未记录过时为0
+     *
+     * @param page 内存页面
+     * @return 最后一次修改这一页的日志的LSN
+     */
+    public static long getPageLsn(Page page) {
+        return Parser.parseLong(page.getData(), OF_PAGE_LSN);
+    }
+
+    /**
+     * 把页面的 PageLSN 推进到指定LSN，已经更大时保持不变
+     * <p>
+     * 同一页上的不同数据项可能被并发修改，调用方需要持有页面的锁
+     *
+     * @param page 内存页面
+     * @param lsn  修改页面的日志的LSN
+     */
+    public static void setPageLsn(Page page, long lsn) {
+        if (lsn > getPageLsn(page)) {
+            page.setDirty(true);
+            System.arraycopy(Parser.long2Byte(lsn), 0, page.getData(), OF_PAGE_LSN, 8);
+        }
     }
 
     // TODO (jyafoo,2024/9/30,16:36) 两个函数 recoverInsert() 和 recoverUpdate() 用于在数据库崩溃后重新打开时，恢复例程直接插入数据以及修改数据使用。不太理解这个场景的使用
@@ -112,16 +155,29 @@ public class PageX {
      * @param raw    要插入页面的数据
      * @param offset 插入数据的起始偏移量，指示了在页面数据数组中开始插入数据的位置
      */
-    public static void recoverInsert(Page page, byte[] raw, short offset) {
+    public static void recoverInsert(Page page, byte[] raw, int offset) {
+        recoverInsert(page, raw, 0, raw.length, offset);
+    }
+
+    /**
+     * 在数据库崩溃后重新打开时恢复例程直接插入数据，数据取自数组的一段，不需要先复制出来
+     *
+     * @param page   要插入数据的页面对象
+     * @param src    数据所在的数组，例如整条日志
+     * @param srcPos 数据在数组中的起始位置
+     * @param length 数据长度
+     * @param offset 插入数据的起始偏移量
+     */
+    public static void recoverInsert(Page page, byte[] src, int srcPos, int length, int offset) {
         page.setDirty(true);
-        System.arraycopy(raw, 0, page.getData(), offset, raw.length);
+        System.arraycopy(src, srcPos, page.getData(), offset, length);
 
-        short rawFSO = getFSO(page);
+        int rawFSO = getFSO(page);
         // TODO (jyafoo,2024/9/30,16:51) Q1：不理解为什么大于插入数据后的末尾偏移量就不用更新，不会造成空间浪费吗？A：插入数据只会比原来大或跟原来相等，不会比原来小。
         // 判断插入数据后是否需要更新FSO
-        if (rawFSO < offset + raw.length) {
+        if (rawFSO < offset + length) {
             // 如果当前FSO值小于插入数据后的末尾偏移量，则更新FSO值为新的末尾偏移量
-            setFSO(page.getData(), (short) (offset + raw.length));
+            setFSO(page.getData(), offset + length);
         }
     }
 
@@ -132,8 +188,21 @@ public class PageX {
      * @param raw    要修改页面的数据
      * @param offset 数据的起始偏移量，指示了在页面数据数组中开始修改数据的位置
      */
-    public static void recoverUpdate(Page page, byte[] raw, short offset) {
+    public static void recoverUpdate(Page page, byte[] raw, int offset) {
+        recoverUpdate(page, raw, 0, raw.length, offset);
+    }
+
+    /**
+     * 在数据库崩溃后重新打开时恢复例程直接修改数据，数据取自数组的一段，不需要先复制出来
+     *
+     * @param page   要修改数据的页面对象
+     * @param src    数据所在的数组，例如整条日志
+     * @param srcPos 数据在数组中的起始位置
+     * @param length 数据长度
+     * @param offset 数据的起始偏移量
+     */
+    public static void recoverUpdate(Page page, byte[] src, int srcPos, int length, int offset) {
         page.setDirty(true);
-        System.arraycopy(raw, 0, page.getData(), offset, raw.length);
+        System.arraycopy(src, srcPos, page.getData(), offset, length);
     }
 }
@@ -0,0 +1,114 @@
+package org.jyafoo.mydb.backend.dm.pageCache;
+
+import org.jyafoo.mydb.backend.utils.Panic;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 通过内存映射读写数据库文件的页面缓存
+ * <p>
+ * 这只是替换了文件读写方式的适配器，不是零拷贝的 mmap 缓存：数据库文件按块（CHUNK_PAGES 页）映射到内存，
+ * 缺页时把页数据从映射区拷贝到堆上的页帧，写回时再拷贝回映射区。每次缺页和写回仍然拷贝一整页，
+ * 省下的只是 pread/pwrite 的系统调用，而访问映射区本身可能触发缺页中断，因此不预期比 PageCacheImpl 更快。
+ * <p>
+ * 页面没有直接使用映射区的切片：Page 以 byte[] 的形式交给上层模块；并且操作系统随时可能把映射区中修改过的页写回文件，
+ * 页面的修改会在对应日志刷盘之前落盘，破坏先写日志的顺序。
+ * <p>
+ * 映射块超出文件末尾时文件会按块增长，关闭时再截断到实际页数。
+ * 缓存、驱逐和后台刷盘逻辑与 PageCacheImpl 相同
+ *
+ * @author jyafoo
+ * @since 2024/10/10
+ */
+public class MmapPageCache extends PageCacheImpl {
+
+    /**
+     * 每个映射块包含的页数
+     */
+    private static final int CHUNK_PAGES = 512;
+
+    /**
+     * 每个映射块的字节数
+     */
+    private final long chunkSize;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel fileChannel;
+
+    /**
+     * 已映射的块，key为块号
+     */
+    private final ConcurrentHashMap<Integer, MappedByteBuffer> chunks;
+
+    public MmapPageCache(RandomAccessFile file, FileChannel fileChannel, int maxResource, int pageSize) {
+        super(file, fileChannel, maxResource, pageSize);
+        this.chunkSize = (long) CHUNK_PAGES * pageSize;
+        this.file = file;
+        this.fileChannel = fileChannel;
+        this.chunks = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * 获取页面所在的映射块，块还未映射时进行映射
+     */
+    private MappedByteBuffer chunk(int pgno) {
+        int index = (int) (pageOffset(pgno) / chunkSize);
+        return chunks.computeIfAbsent(index, i -> {
+            try {
+                return fileChannel.map(FileChannel.MapMode.READ_WRITE, i * chunkSize, chunkSize);
+            } catch (IOException e) {
+                Panic.panic(e);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 计算页面在所在映射块中的偏移
+     */
+    private int offsetInChunk(int pgno) {
+        return (int) (pageOffset(pgno) % chunkSize);
+    }
+
+    @Override
+    protected void readPage(int pgno, byte[] dst) {
+        chunk(pgno).get(offsetInChunk(pgno), dst);
+    }
+
+    @Override
+    protected void writePage(int pgno, byte[] data) {
+        chunk(pgno).put(offsetInChunk(pgno), data);
+    }
+
+    @Override
+    protected void force() {
+        for (MappedByteBuffer chunk : chunks.values()) {
+            chunk.force();
+        }
+    }
+
+    @Override
+    protected void truncateFile(int maxPgno) {
+        long size = pageOffset(maxPgno + 1);
+        // 超出截断位置的映射块不能再使用，之后访问时重新映射
+        chunks.keySet().removeIf(i -> (i + 1) * chunkSize > size);
+        super.truncateFile(maxPgno);
+    }
+
+    @Override
+    protected void closeFile() {
+        chunks.clear();
+        // 映射时文件按块增长，关闭时截断到实际页数，否则下次打开时会把多出的空白部分当成页面
+        try {
+            file.setLength(pageOffset(getPageNumbers() + 1));
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+        super.closeFile();
+    }
+}
@@ -1,5 +1,6 @@
 package org.jyafoo.mydb.backend.dm.pageCache;
 
+import org.jyafoo.mydb.backend.common.CacheStats;
 import org.jyafoo.mydb.backend.dm.page.Page;
 import org.jyafoo.mydb.backend.utils.Panic;
 
@@ -7,6 +8,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.Map;
 
 import org.jyafoo.mydb.common.Error;
 
@@ -23,6 +25,16 @@ public interface PageCache {
      */
     static final int PAGE_SIZE = 1 << 13;
 
+    /**
+     * 可选的最小页大小 4K
+     */
+    static final int MIN_PAGE_SIZE = 1 << 12;
+
+    /**
+     * 可选的最大页大小 32K。页内偏移以2字节存储，页大小不能超过2字节无符号数能表示的范围
+     */
+    static final int MAX_PAGE_SIZE = 1 << 15;
+
     /**
      * 在数据库文件中创建一个新的页面
      *
@@ -74,6 +86,69 @@ public interface PageCache {
      */
     void flushPage(Page page);
 
+    /**
+     * 把缓存中所有的脏页（包括正在被引用的页面）写入数据库文件并刷盘，用于恢复结束时写回恢复修改的页面
+     * <p>
+     * 调用方需要保证期间没有页面被修改
+     */
+    void flushAll();
+
+    /**
+     * 写回当前未被引用的脏页并刷盘，不等待被引用的页面
+     */
+    default void flushDirtyPages() {
+    }
+
+    /**
+     * 在脏页表中登记页面的 recLSN：页面写回之前第一条修改它的日志的LSN（下界）。已登记的页面保持原值
+     *
+     * @param pgno 页号
+     * @param lsn  修改页面的日志的LSN下界
+     */
+    default void markDirty(int pgno, long lsn) {
+    }
+
+    /**
+     * 获取脏页表的快照：页号到 recLSN 的映射
+     */
+    default Map<Integer, Long> dirtyPageTable() {
+        return Map.of();
+    }
+
+    /**
+     * 设置写回页面之前执行的操作。数据管理器用它等待日志刷盘，保证修改页面的日志先于页面持久化
+     *
+     * @param beforeWrite 写回页面之前执行的操作
+     */
+    default void setBeforeWrite(Runnable beforeWrite) {
+    }
+
+    /**
+     * 获取数据库文件的页大小
+     *
+     * @return 页大小，单位字节
+     */
+    default int getPageSize() {
+        return PAGE_SIZE;
+    }
+
+    /**
+     * 预读页面：异步地把即将访问的页面加载到缓存中，调用方不等待加载完成
+     * <p>
+     * 预读只是一个提示，实现可以忽略部分或全部页面
+     *
+     * @param pgnos 即将访问的页号
+     */
+    default void prefetch(int[] pgnos) {
+    }
+
+    /**
+     * 获取页面缓存的统计信息，不支持统计的实现返回null
+     */
+    default CacheStats stats() {
+        return null;
+    }
+
     /**
      * 创建页面缓存操作对象
      *
@@ -82,6 +157,21 @@ public interface PageCache {
      * @return 页面缓存操作对象
      */
     static PageCacheImpl create(String path, long memory) {
+        return create(path, memory, PAGE_SIZE);
+    }
+
+    /**
+     * 创建页面缓存操作对象
+     *
+     * @param path     存储数据库文件的路径
+     * @param memory   页面缓存大小
+     * @param pageSize 页大小，必须是 MIN_PAGE_SIZE 到 MAX_PAGE_SIZE 之间的2的幂
+     * @return 页面缓存操作对象
+     */
+    static PageCacheImpl create(String path, long memory, int pageSize) {
+        if (!isValidPageSize(pageSize)) {
+            Panic.panic(Error.InvalidPageSizeException);
+        }
         File file = new File(path + PageCacheImpl.DB_SUFFIX);
         try {
             if (!file.createNewFile()) {
@@ -102,7 +192,7 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
             Panic.panic(e);
         }
-        return new PageCacheImpl(randomAccessFile, fileChannel, (int) memory / PAGE_SIZE);
+        return new PageCacheImpl(randomAccessFile, fileChannel, (int) (memory / pageSize), pageSize);
     }
 
     /**
@@ -111,6 +201,30 @@ public interface PageCache {
      * @return 页面缓存操作对象
      */
     static PageCacheImpl open(String path, long memory) {
+        return open(path, memory, false);
+    }
+
+    /**
+     * @param path   存储数据库文件的路径
+     * @param memory 页面缓存大小
+     * @param mmap   是否使用内存映射方式读写数据库文件
+     * @return 页面缓存操作对象
+     */
+    static PageCacheImpl open(String path, long memory, boolean mmap) {
+        return open(path, memory, mmap, PAGE_SIZE);
+    }
+
+    /**
+     * @param path     存储数据库文件的路径
+     * @param memory   页面缓存大小
+     * @param mmap     是否使用内存映射方式读写数据库文件
+     * @param pageSize 数据库文件的页大小
+     * @return 页面缓存操作对象
+     */
+    static PageCacheImpl open(String path, long memory, boolean mmap, int pageSize) {
+        if (!isValidPageSize(pageSize)) {
+            Panic.panic(Error.InvalidPageSizeException);
+        }
         File file = new File(path + PageCacheImpl.DB_SUFFIX);
         if (!file.exists()) {
             Panic.panic(Error.FileNotExistsException);
@@ -127,6 +241,16 @@ public interface PageCache {
         } catch (FileNotFoundException e) {
             Panic.panic(e);
         }
-        return new PageCacheImpl(randomAccessFile, fileChannel, (int) memory / PAGE_SIZE);
+        if (mmap) {
+            return new MmapPageCache(randomAccessFile, fileChannel, (int) (memory / pageSize), pageSize);
+        }
+        return new PageCacheImpl(randomAccessFile, fileChannel, (int) (memory / pageSize), pageSize);
+    }
+
+    /**
+     * 页大小必须是 MIN_PAGE_SIZE 到 MAX_PAGE_SIZE 之间的2的幂
+     */
+    private static boolean isValidPageSize(int pageSize) {
+        return pageSize >= MIN_PAGE_SIZE && pageSize <= MAX_PAGE_SIZE && Integer.bitCount(pageSize) == 1;
     }
 }
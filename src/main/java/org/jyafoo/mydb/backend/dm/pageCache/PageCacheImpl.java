@@ -1,6 +1,8 @@
 package org.jyafoo.mydb.backend.dm.pageCache;
 
 import org.jyafoo.mydb.backend.common.AbstractCache;
+import org.jyafoo.mydb.backend.common.CacheStats;
+import org.jyafoo.mydb.backend.common.TwoQueueReplacer;
 import org.jyafoo.mydb.backend.dm.page.Page;
 import org.jyafoo.mydb.backend.dm.page.PageImpl;
 import org.jyafoo.mydb.backend.utils.Panic;
@@ -10,12 +12,32 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 页面缓存实现
+ * <p>
+ * 页面缓存工作在驻留模式：页面释放后仍留在缓存中，只有在需要空出位置时才按 2Q 策略驱逐冷的、未被引用的页面。
+ * 只被访问过一次的页面（例如全表扫描经过的页面）停留在试用段并优先被驱逐，不会把反复访问的热点页面挤出缓存
+ * <p>
+ * 持久性由日志保证，数据文件的写回不需要每页同步刷盘：脏页由后台刷盘线程按页号顺序批量写回，每批只执行一次 force；
+ * 驱逐脏页和新建页面时只写入文件，不等待 force，前台操作不会阻塞在数据文件的刷盘上
+ * <p>
+ * 被驱逐页面的页数组会回收到空闲页框池中，缺页时优先复用，缓存满载换页时不再频繁分配新的页数组
+ * <p>
+ * 范围扫描等可以预知访问顺序的场景，可以通过 prefetch 把即将访问的页面交给预读线程池提前加载
  *
  * @author jyafoo
  * @since 2024/9/30
@@ -43,17 +65,83 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     private FileChannel fileChannel;
 
     /**
-     * 文件锁对象，用于同步访问文件
+     * 记录当前打开的数据库文件有多少页。在数据库文件被打开时数量就会被计算，并在新建页面时自增
      */
-    private Lock fileLock;
+    private AtomicInteger pageNumbers;
 
     /**
-     * 记录当前打开的数据库文件有多少页。在数据库文件被打开时数量就会被计算，并在新建页面时自增
+     * 数据库文件的页大小
      */
-    private AtomicInteger pageNumbers;
+    private final int pageSize;
+
+    /**
+     * 已被修改、尚未写回的页号，按页号排序，后台刷盘时按顺序写回
+     */
+    private final ConcurrentSkipListSet<Integer> dirtyPages;
+
+    /**
+     * 脏页数量（近似值），达到阈值时唤醒后台刷盘线程
+     */
+    private final AtomicInteger dirtyCount;
 
-    public PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource) {
-        super(maxResource);
+    /**
+     * 脏页表：页号到 recLSN 的映射。页面写入文件之前移除，之后的修改重新登记
+     */
+    private final ConcurrentHashMap<Integer, Long> recLsns;
+
+    /**
+     * 唤醒后台刷盘线程的脏页数量阈值
+     */
+    private final int flushThreshold;
+
+    /**
+     * 保证同一时间只有一批脏页在写回，调用者返回时之前登记的脏页都已写回
+     */
+    private final Lock batchLock;
+
+    /**
+     * 空闲页框池，保存被驱逐页面的页数组
+     */
+    private final ArrayBlockingQueue<byte[]> freeFrames;
+
+    /**
+     * 空闲页框池的最大容量
+     */
+    private static final int FREE_FRAMES_LIM = 64;
+
+    /**
+     * 预读线程池，队列满时丢弃新的预读请求
+     */
+    private final ThreadPoolExecutor prefetcher;
+
+    private static final int PREFETCH_THREADS = 4;
+
+    private static final int PREFETCH_QUEUE_LIM = 256;
+
+    /**
+     * 一次预读最多加载的页数，避免预读把缓存中的热点页面全部换出
+     */
+    private final int prefetchLimit;
+
+    // 统计计数：刷盘批次数、批量刷盘写回的页数、驱逐时写回的页数、提交的预读页数
+    private final LongAdder flushBatches = new LongAdder();
+    private final LongAdder flushedPages = new LongAdder();
+    private final LongAdder evictionWrites = new LongAdder();
+    private final LongAdder prefetches = new LongAdder();
+
+    private final Lock flushLock;
+    private final Condition flushWanted;
+    private volatile boolean running;
+    private final Thread flusher;
+
+    /**
+     * 写回页面之前执行的操作，见 PageCache.setBeforeWrite
+     */
+    private volatile Runnable beforeWrite = () -> {
+    };
+
+    public PageCacheImpl(RandomAccessFile file, FileChannel fileChannel, int maxResource, int pageSize) {
+        super(maxResource, new TwoQueueReplacer(maxResource));
         // 检查最大资源限制是否小于最小内存限制
         if (maxResource < MEN_MIN_LIM) {
             Panic.panic(Error.MemTooSmallException);
@@ -68,8 +156,29 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
 
         this.file = file;
         this.fileChannel = fileChannel;
-        this.fileLock = new ReentrantLock();
-        this.pageNumbers = new AtomicInteger((int) length / PAGE_SIZE);
+        this.pageSize = pageSize;
+        this.pageNumbers = new AtomicInteger((int) (length / pageSize));
+
+        this.dirtyPages = new ConcurrentSkipListSet<>();
+        this.dirtyCount = new AtomicInteger(0);
+        this.recLsns = new ConcurrentHashMap<>();
+        this.flushThreshold = Math.max(1, maxResource / 4);
+        this.freeFrames = new ArrayBlockingQueue<>(Math.min(maxResource, FREE_FRAMES_LIM));
+        this.prefetchLimit = Math.max(1, maxResource / 4);
+        this.prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 1, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(PREFETCH_QUEUE_LIM), r -> {
+                    Thread t = new Thread(r, "page-prefetcher");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+        this.prefetcher.allowCoreThreadTimeOut(true);
+        this.batchLock = new ReentrantLock();
+        this.flushLock = new ReentrantLock();
+        this.flushWanted = flushLock.newCondition();
+        this.running = true;
+        this.flusher = new Thread(this::flushLoop, "page-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
     }
 
     // TODO (jyafoo,2024/9/30,14:31) 注意：同一条数据是不允许跨页存储的，这一点会从后面的章节中体现。这意味着，单条数据的大小不能超过数据库页面的大小。
@@ -77,8 +186,7 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     @Override
     public int newPage(byte[] initDate) {
         int pgno = pageNumbers.incrementAndGet();
-        PageImpl page = new PageImpl(pgno, initDate, null);
-        flushPage(page); // 新建的页面需要立刻写回数据库文件
+        writePage(pgno, initDate); // 新建的页面需要立刻写入数据库文件，但不必等待刷盘
         return pgno;
     }
 
@@ -89,19 +197,29 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
 
     @Override
     public void release(Page page) {
+        boolean dirty = page.isDirty();
         release(page.getPageNumber());
+        // 先释放再登记脏页，保证刷盘线程取到的页面已经不再被当前线程引用
+        if (dirty && dirtyPages.add(page.getPageNumber())
+                && dirtyCount.incrementAndGet() >= flushThreshold) {
+            wakeFlusher();
+        }
     }
 
     @Override
     public void truncateByPgno(int maxPgno) {
         // TODO (jyafoo,2024/9/30,17:41) Q2：这个截断过程不是很懂，为什么要截断，有什么用？
-        long size = pageOffset(maxPgno + 1);
-        try {
-            file.setLength(size);
-        } catch (IOException e) {
-            Panic.panic(e);
+        truncateFile(maxPgno);
+
+        // 被截掉的页面不能再留在缓存中，否则新建同页号的页面时会读到旧数据
+        discard(key -> key > maxPgno);
+        recLsns.keySet().removeIf(pgno -> pgno > maxPgno);
+        Integer pgno;
+        while ((pgno = dirtyPages.higher(maxPgno)) != null) {
+            if (dirtyPages.remove(pgno)) {
+                dirtyCount.decrementAndGet();
+            }
         }
-
         pageNumbers.set(maxPgno);
     }
 
@@ -115,6 +233,84 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         flush(page);
     }
 
+    @Override
+    public void flushAll() {
+        batchLock.lock();
+        try {
+            int[] written = {0};
+            forEachLoaded(page -> {
+                if (writeBack(page)) {
+                    written[0]++;
+                }
+            });
+            // 新建的页面已经写入文件但没有刷盘，无论是否写了脏页都需要 force
+            force();
+            flushBatches.increment();
+            flushedPages.add(written[0]);
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    @Override
+    public void setBeforeWrite(Runnable beforeWrite) {
+        this.beforeWrite = beforeWrite;
+    }
+
+    @Override
+    public void markDirty(int pgno, long lsn) {
+        recLsns.putIfAbsent(pgno, lsn);
+    }
+
+    @Override
+    public Map<Integer, Long> dirtyPageTable() {
+        return new HashMap<>(recLsns);
+    }
+
+    @Override
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public void prefetch(int[] pgnos) {
+        int maxPgno = pageNumbers.get();
+        int submitted = 0;
+        for (int pgno : pgnos) {
+            if (submitted >= prefetchLimit) {
+                break;
+            }
+            if (pgno < 1 || pgno > maxPgno || contains(pgno)) {
+                continue;
+            }
+            prefetcher.execute(() -> {
+                try {
+                    get(pgno);
+                } catch (Exception e) {
+                    // 缓存已满等情况下放弃预读
+                    return;
+                }
+                release(pgno);
+            });
+            submitted++;
+        }
+        prefetches.add(submitted);
+    }
+
+    @Override
+    public CacheStats stats() {
+        return stats("page cache");
+    }
+
+    @Override
+    protected void fillStats(CacheStats stats) {
+        stats.put("flush pending", dirtyCount.get());
+        stats.put("flush batches", flushBatches.sum());
+        stats.put("flushed pages", flushedPages.sum());
+        stats.put("eviction writes", evictionWrites.sum());
+        stats.put("prefetches", prefetches.sum());
+    }
+
 
     /**
      * 根据pageNumber从数据库文件中读取页数据，并包裹成Page
@@ -122,21 +318,37 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
     @Override
     protected Page getForCache(long key) throws Exception {
         int pgno = (int) key;
-        long offset = PageCacheImpl.pageOffset(pgno);
-
-        ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
-        fileLock.lock();
+        byte[] data = freeFrames.poll();
+        if (data == null) {
+            data = new byte[pageSize];
+        }
+        readPage(pgno, data);
+        return new PageImpl(pgno, data, this);
+    }
 
+    /**
+     * 从数据库文件中读取一页数据，超出文件末尾的部分为0
+     * <p>
+     * 使用带位置的读（pread），不改变文件通道的共享位置，多个线程的缺页读取可以并行进行
+     *
+     * @param pgno 页号
+     * @param dst  读取的目标数组
+     */
+    protected void readPage(int pgno, byte[] dst) {
+        long offset = pageOffset(pgno);
+        ByteBuffer buf = ByteBuffer.wrap(dst);
         try {
-            fileChannel.position(offset);
-            fileChannel.read(buf);
+            // 一次读取可能读不满一页，循环读取直到读满或到达文件末尾
+            while (buf.hasRemaining()) {
+                if (fileChannel.read(buf, offset + buf.position()) < 0) {
+                    break;
+                }
+            }
         } catch (IOException e) {
             Panic.panic(e);
-        } finally {
-            fileLock.unlock();
         }
-
-        return new PageImpl(pgno, buf.array(), this);
+        // 复用的页框中可能残留旧数据，超出文件末尾的部分需要清零
+        Arrays.fill(dst, buf.position(), dst.length, (byte) 0);
     }
 
     /**
@@ -145,19 +357,22 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
      * @param pgno 页码（从1开始）
      * @return 该页的偏移量
      */
-    private static long pageOffset(int pgno) {
-        return (long) (pgno - 1) * PAGE_SIZE;
+    long pageOffset(int pgno) {
+        return (long) (pgno - 1) * pageSize;
     }
 
     /**
      * 驱逐页面，需要根据页面是否是脏页面，来决定是否需要写回文件系统
+     * <p>
+     * 只写入文件不刷盘，由后台刷盘线程或关闭时统一 force。
+     * 被驱逐的页面已经没有引用者，它的页数组回收到空闲页框池
      */
     @Override
     protected void releaseForCache(Page page) {
-        if (page.isDirty()) {
-            flush(page);
-            page.setDirty(false);
+        if (writeBack(page)) {
+            evictionWrites.increment();
         }
+        freeFrames.offer(page.getData());
     }
 
     /**
@@ -166,26 +381,92 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
      * @param page 要刷盘的内存页
      */
     void flush(Page page) {
+        write(page);
+        force();
+    }
+
+    /**
+     * 写回脏页并把页面移出脏页表，不等待刷盘
+     * <p>
+     * 写入返回之后才移出脏页表：写入期间并发的检查点仍能在脏页表中看到这个页面，不会回收重做它所需的日志。
+     * 检查点在回收日志之前会刷盘，移出之前完成的写入都已持久化。
+     * 只移除写入之前读到的 recLSN，写入期间重新登记的 recLSN 保留
+     *
+     * @param page 要写回的内存页
+     * @return 页面是否是脏页并已写入
+     */
+    private boolean writeBack(Page page) {
         int pgno = page.getPageNumber();
+        Long recLsn = recLsns.get(pgno);
+        boolean dirty = page.isDirty();
+        if (dirty) {
+            write(page);
+            page.setDirty(false);
+        }
+        if (recLsn != null) {
+            recLsns.remove(pgno, recLsn);
+        }
+        return dirty;
+    }
+
+    /**
+     * 将页面写入数据库文件，不等待刷盘
+     *
+     * @param page 要写入的内存页
+     */
+    private void write(Page page) {
+        beforeWrite.run();
+        writePage(page.getPageNumber(), page.getData());
+    }
+
+    /**
+     * 将一页数据写入数据库文件，不等待刷盘
+     * <p>
+     * 使用带位置的写（pwrite），不同页面的写入可以并行进行
+     *
+     * @param pgno 页号
+     * @param data 页数据
+     */
+    protected void writePage(int pgno, byte[] data) {
         long offset = pageOffset(pgno);
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) {
+                fileChannel.write(buf, offset + buf.position());
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
 
-        fileLock.lock();
+    /**
+     * 将文件更改强制写入磁盘
+     */
+    protected void force() {
+        try {
+            fileChannel.force(false); // false表示只刷新文件内容，不刷新元数据
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
 
+    /**
+     * 将数据库文件截断到指定页号
+     *
+     * @param maxPgno 截断后的最大页号
+     */
+    protected void truncateFile(int maxPgno) {
         try {
-            ByteBuffer buf = ByteBuffer.wrap(page.getData());
-            fileChannel.position(offset);
-            fileChannel.write(buf);
-            fileChannel.force(false);  // 将文件更改强制写入磁盘，false表示不阻塞其他写操作，true表示阻塞直到写操作完成
+            file.setLength(pageOffset(maxPgno + 1));
         } catch (IOException e) {
             Panic.panic(e);
-        } finally {
-            fileLock.unlock();
         }
     }
 
-    @Override
-    public void close() {
-        super.close();
+    /**
+     * 关闭数据库文件
+     */
+    protected void closeFile() {
         try {
             fileChannel.close();
             file.close();
@@ -194,4 +475,95 @@ public class PageCacheImpl extends AbstractCache<Page> implements PageCache {
         }
     }
 
+    /**
+     * 唤醒后台刷盘线程
+     */
+    private void wakeFlusher() {
+        flushLock.lock();
+        try {
+            flushWanted.signal();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 后台刷盘线程：脏页数量达到阈值后，写回一批脏页
+     */
+    private void flushLoop() {
+        while (running) {
+            flushLock.lock();
+            try {
+                while (running && dirtyCount.get() < flushThreshold) {
+                    flushWanted.await();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                flushLock.unlock();
+            }
+            if (running) {
+                flushDirtyPages();
+            }
+        }
+    }
+
+    /**
+     * 按页号顺序写回当前未被引用的脏页，整批写完后执行一次 force
+     * <p>
+     * 写入期间页面被标记为正在写回，不会被引用、修改或驱逐，避免页面被标记为干净后、写入完成前被驱逐并重新读到旧数据。
+     * 仍被引用的页面跳过，释放时会重新登记为脏页
+     */
+    @Override
+    public void flushDirtyPages() {
+        batchLock.lock();
+        try {
+            int written = 0;
+            Integer pgno;
+            while ((pgno = dirtyPages.pollFirst()) != null) {
+                dirtyCount.decrementAndGet();
+                boolean[] dirty = {false};
+                withUnpinned(pgno, page -> dirty[0] = writeBack(page));
+                if (dirty[0]) {
+                    written++;
+                }
+            }
+            if (written > 0) {
+                force();
+                flushBatches.increment();
+                flushedPages.add(written);
+            }
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        // 丢弃尚未开始的预读，等待正在进行的预读完成。不能使用 shutdownNow：中断正在进行的文件读写会导致文件通道被关闭
+        prefetcher.getQueue().clear();
+        prefetcher.shutdown();
+        try {
+            prefetcher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+        // 同样不能中断刷盘线程，只能通知它退出
+        flushLock.lock();
+        try {
+            running = false;
+            flushWanted.signal();
+        } finally {
+            flushLock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+        super.close();
+        force();
+        closeFile();
+    }
+
 }
@@ -22,9 +22,9 @@ public class PageIndex {
     private static final int INTERVALS_NO = 40;
 
     /**
-     * 页面缓存的每个区间阈值大小
+     * 页面缓存的每个区间阈值大小，由页大小决定
      */
-    private static final int THRESHOLD = PageCache.PAGE_SIZE / INTERVALS_NO;
+    private final int threshold;
 
     /**
      * 存储PageInfo列表的数组，用于按区间管理页面信息
@@ -36,8 +36,16 @@ public class PageIndex {
      */
     private Lock lock;
 
-    @SuppressWarnings("unchecked")  // 抑制编译器对泛型类型检查警告
     public PageIndex() {
+        this(PageCache.PAGE_SIZE);
+    }
+
+    /**
+     * @param pageSize 数据库文件的页大小
+     */
+    @SuppressWarnings("unchecked")  // 抑制编译器对泛型类型检查警告
+    public PageIndex(int pageSize) {
+        threshold = pageSize / INTERVALS_NO;
         lock = new ReentrantLock();
         // TODO (jyafoo,2024/10/2,11:07) Q9：为什么是创建INTERVALS_NO + 1个？
         lists = new List[INTERVALS_NO + 1];
@@ -58,7 +66,7 @@ public class PageIndex {
         lock.lock();
         try {
             // 计算请求的页大小对应于哪个区间
-            int number = spaceSize / THRESHOLD;
+            int number = spaceSize / threshold;
             // 确保计算结果不会小于区间数量
             if (number < INTERVALS_NO) {
                 number++;
@@ -89,7 +97,7 @@ public class PageIndex {
         lock.lock();
         try {
             // 计算空闲空间段的数量，用于确定页面信息应添加到哪个列表中
-            int number = freeSpace / THRESHOLD;
+            int number = freeSpace / threshold;
             lists[number].add(new PageInfo(pgno,freeSpace));
         } finally {
             lock.unlock();
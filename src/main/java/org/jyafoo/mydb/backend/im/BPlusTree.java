@@ -197,6 +197,10 @@ public class BPlusTree {
             Node.LeafSearchRangeRes leafSearchRange = leaf.leafSearchRange(leftKey, rightKey);
             // 释放叶子节点资源
             leaf.release();
+            // 预读下一个叶子节点，与处理当前叶子节点重叠
+            if (leafSearchRange.siblingUid != 0) {
+                dm.prefetch(List.of(leafSearchRange.siblingUid));
+            }
             // 将当前叶子节点中符合条件的所有键的UID添加到结果列表中
             uids.addAll(leafSearchRange.uids);
             // 如果没有下一个兄弟节点，则结束循环
@@ -106,7 +106,8 @@ public class Parser {
     /**
      * 解析show命令
      * <p>
-     * 该方法用于解析一个显示命令，如果输入为空，则返回一个新的Show对象；如果输入不为空，则抛出InvalidCommandException异常
+     * 该方法用于解析一个显示命令，如果输入为空，则返回一个新的Show对象；如果输入为stats，则返回显示统计信息的Show对象；
+     * 否则抛出InvalidCommandException异常
      *
      * @param tokenizer 用于分割命令字符串的分隔符
      * @return 返回一个新的Show对象，如果输入为空
@@ -120,6 +121,13 @@ public class Parser {
             // 返回一个新的Show对象
             return new Show();
         }
+        // show stats：显示缓存统计信息
+        if ("stats".equals(tmp)) {
+            tokenizer.pop();
+            Show show = new Show();
+            show.stats = true;
+            return show;
+        }
         // 如果命令不为空，抛出异常，表示命令无效
         throw Error.InvalidCommandException;
     }
@@ -649,61 +657,55 @@ public class Parser {
     /**
      * 解析并创建Begin对象
      * 该方法根据tokenizer中的令牌信息，构建一个表示事务开始的Begin对象
-     * 支持解析两种隔离级别：READ COMMITTED 和 REPEATABLE READ
+     * 支持解析两种隔离级别：READ COMMITTED 和 REPEATABLE READ，之后可以跟 ASYNC 表示异步提交
+     * <p>
+     * begin [isolation level (read committed | repeatable read)] [async]
      *
      * @param tokenizer 用于解析命令的Tokenizer对象
      * @return 返回解析后的Begin对象
      * @throws Exception 如果命令格式无效，抛出异常
      */
     private static Begin parseBegin(Tokenizer tokenizer) throws Exception {
-        // 查看下一个令牌，判断是否为空或指定的隔离级别关键字
-        String isolation = tokenizer.peek();
+        // 查看下一个令牌，判断是否为指定的隔离级别关键字
         Begin begin = new Begin();
-        if ("".equals(isolation)) {
-            return begin;
-        }
-        if (!"isolation".equals(isolation)) {
-            throw Error.InvalidCommandException;
-        }
-
-        // 消耗当前令牌，查看下一个令牌
-        tokenizer.pop();
-        String level = tokenizer.peek();
-        if (!"level".equals(level)) {
-            throw Error.InvalidCommandException;
-        }
-        tokenizer.pop();
-
-        // 根据令牌内容，确定隔离级别
-        String tmp1 = tokenizer.peek();
-        if ("read".equals(tmp1)) {
+        if ("isolation".equals(tokenizer.peek())) {
+            // 消耗当前令牌，查看下一个令牌
             tokenizer.pop();
-            String tmp2 = tokenizer.peek();
-            if ("committed".equals(tmp2)) {
-                tokenizer.pop();
-                if (!"".equals(tokenizer.peek())) {
-                    throw Error.InvalidCommandException;
-                }
-                return begin;
-            } else {
+            String level = tokenizer.peek();
+            if (!"level".equals(level)) {
                 throw Error.InvalidCommandException;
             }
-        } else if ("repeatable".equals(tmp1)) {
             tokenizer.pop();
-            String tmp2 = tokenizer.peek();
-            if ("read".equals(tmp2)) {
-                begin.isRepeatableRead = true;
+
+            // 根据令牌内容，确定隔离级别
+            String tmp1 = tokenizer.peek();
+            if ("read".equals(tmp1)) {
+                tokenizer.pop();
+                if (!"committed".equals(tokenizer.peek())) {
+                    throw Error.InvalidCommandException;
+                }
                 tokenizer.pop();
-                if (!"".equals(tokenizer.peek())) {
+            } else if ("repeatable".equals(tmp1)) {
+                tokenizer.pop();
+                if (!"read".equals(tokenizer.peek())) {
                     throw Error.InvalidCommandException;
                 }
-                return begin;
+                begin.isRepeatableRead = true;
+                tokenizer.pop();
             } else {
                 throw Error.InvalidCommandException;
             }
-        } else {
+        }
+
+        // 异步提交：提交时不等待日志和 XID 文件刷盘
+        if ("async".equals(tokenizer.peek())) {
+            begin.isAsyncCommit = true;
+            tokenizer.pop();
+        }
+        if (!"".equals(tokenizer.peek())) {
             throw Error.InvalidCommandException;
         }
+        return begin;
     }
 
 
@@ -8,4 +8,8 @@ package org.jyafoo.mydb.backend.parse.statement;
  */
 public class Begin {
     public boolean isRepeatableRead;
+    /**
+     * 异步提交：提交时只写入缓冲，不等待刷盘，崩溃时可能丢失最近一个刷盘周期内的提交
+     */
+    public boolean isAsyncCommit;
 }
@@ -6,4 +6,8 @@ package org.jyafoo.mydb.backend.parse.statement;
  * @since 2024/10/6
  */
 public class Show {
+    /**
+     * 是否为 show stats，显示缓存统计信息
+     */
+    public boolean stats;
 }
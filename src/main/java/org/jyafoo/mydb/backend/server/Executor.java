@@ -80,6 +80,9 @@ public class Executor {
             byte[] res = tbm.abort(xid);
             xid = 0;
             return res;
+        } else if (Show.class.isInstance(stat) && ((Show) stat).stats) {
+            // 统计信息与事务无关，不需要开启临时事务
+            return tbm.stats();
         } else {
             // 对于其他类型的SQL命令，调用execute2方法进行执行
             return execute2(stat);
@@ -1,6 +1,7 @@
 package org.jyafoo.mydb.backend.tbm;
 
 import com.google.common.primitives.Bytes;
+import org.jyafoo.mydb.backend.dm.DataManager;
 import org.jyafoo.mydb.backend.parse.statement.*;
 import org.jyafoo.mydb.backend.tm.TransactionManagerImpl;
 import org.jyafoo.mydb.backend.utils.Panic;
@@ -22,6 +23,9 @@ import java.util.*;
  * @since 2024/10/7
  */
 public class Table {
+    /// 读取数据时每批预读的数据项个数
+    private static final int PREFETCH_BATCH = 64;
+
     /// 表管理器，用于管理表操作
     TableManager tbm;
     /// 表的唯一id
@@ -287,8 +291,14 @@ public class Table {
         // 使用StringBuilder来高效地构建最终的返回字符串
         StringBuilder sb = new StringBuilder();
 
+        DataManager dm = ((TableManagerImpl) tbm).dm;
         // 遍历UID列表，对每个UID进行数据读取和处理
-        for (Long uid : uids) {
+        for (int i = 0; i < uids.size(); i++) {
+            // 每读完一批数据项，预读后续两批数据项所在的页面
+            if (i % PREFETCH_BATCH == 0) {
+                dm.prefetch(uids.subList(i, Math.min(uids.size(), i + 2 * PREFETCH_BATCH)));
+            }
+            long uid = uids.get(i);
             // 从表管理器中读取指定UID的数据项
             byte[] raw = ((TableManagerImpl) tbm).vm.read(xid, uid);
 
@@ -45,6 +45,13 @@ public interface TableManager {
      */
     byte[] show(long xid);
 
+    /**
+     * 显示各个缓存的统计信息
+     *
+     * @return 返回统计信息的文本
+     */
+    byte[] stats();
+
     /**
      * 创建数据库对象
      *
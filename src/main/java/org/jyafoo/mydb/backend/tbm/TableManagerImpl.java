@@ -1,6 +1,8 @@
 package org.jyafoo.mydb.backend.tbm;
 
 
+import org.jyafoo.mydb.backend.common.CacheStats;
+import org.jyafoo.mydb.backend.common.IoStats;
 import org.jyafoo.mydb.backend.dm.DataManager;
 import org.jyafoo.mydb.backend.parse.statement.*;
 import org.jyafoo.mydb.backend.utils.Parser;
@@ -100,7 +102,7 @@ public class TableManagerImpl implements TableManager {
     public BeginRes begin(Begin begin) {
         BeginRes res = new BeginRes();
         int level = begin.isRepeatableRead ? 1 : 0;
-        res.xid = vm.begin(level);
+        res.xid = vm.begin(level, begin.isAsyncCommit);
         res.result = "begin".getBytes();
         return res;
     }
@@ -138,6 +140,24 @@ public class TableManagerImpl implements TableManager {
         }
     }
 
+    @Override
+    public byte[] stats() {
+        StringBuilder sb = new StringBuilder();
+        for (CacheStats s : dm.stats()) {
+            sb.append(s);
+        }
+        for (CacheStats s : vm.stats()) {
+            sb.append(s);
+        }
+        for (IoStats s : dm.ioStats()) {
+            sb.append(s);
+        }
+        for (IoStats s : vm.ioStats()) {
+            sb.append(s);
+        }
+        return sb.toString().getBytes();
+    }
+
     @Override
     public byte[] create(long xid, Create create) throws Exception {
         lock.lock();
@@ -1,5 +1,6 @@
 package org.jyafoo.mydb.backend.tm;
 
+import org.jyafoo.mydb.backend.common.IoStats;
 import org.jyafoo.mydb.backend.utils.Panic;
 import org.jyafoo.mydb.common.Error;
 
@@ -70,6 +71,54 @@ public interface TransactionManager {
      */
     void close();
 
+    /**
+     * 异步提交事务：提交状态先保存在内存中，对其他事务立即可见，由 syncCommits 统一写入 XID 文件并刷盘
+     *
+     * @param xid 事务xid
+     */
+    default void commitAsync(long xid) {
+        commit(xid);
+    }
+
+    /**
+     * 把异步提交的事务状态写入 XID 文件并刷盘
+     * <p>
+     * 写入之前先执行 flushLog，保证这些事务的日志已经持久化，避免崩溃后事务已提交而日志不完整
+     *
+     * @param flushLog 等待日志刷盘的操作
+     */
+    default void syncCommits(Runnable flushLog) {
+    }
+
+    /**
+     * 查询事务的提交状态是否已经写入 XID 文件。异步提交的事务在 syncCommits 之前只在内存中是提交状态
+     *
+     * @param xid 事务id
+     * @return 如果事务已提交且提交状态已经持久化，返回true；否则返回false
+     */
+    default boolean isCommitPersisted(long xid) {
+        return isCommitted(xid);
+    }
+
+    /**
+     * 把打开 XID 文件时仍处于活跃状态的事务标记为中止，由数据管理器在打开时（恢复结束之后）调用
+     */
+    default void abortUnfinished() {
+    }
+
+    /**
+     * 冻结已经结束的早期事务并压缩 XID 文件：冻结线以下的事务只记录中止的少数，其余都视为已提交，
+     * 文件和内存只保存冻结线之后的事务状态
+     */
+    default void freeze() {
+    }
+
+    /**
+     * 获取 XID 文件写入和刷盘的统计信息，不支持统计的实现返回null
+     */
+    default IoStats stats() {
+        return null;
+    }
 
     static TransactionManagerImpl create(String path) {
         File file = new File(path + TransactionManagerImpl.XID_SUFFIX);
@@ -110,12 +159,23 @@ public interface TransactionManager {
         }
 
         // 5、创建事务管理器实现类
-        return new TransactionManagerImpl(randomAccessFile, fileChannel);
+        return new TransactionManagerImpl(file, randomAccessFile, fileChannel);
     }
 
     static TransactionManagerImpl open(String path) {
         File file = new File(path + TransactionManagerImpl.XID_SUFFIX);
 
+        // 压缩 XID 文件时留下的临时文件：原文件还在时说明没有完成替换，丢弃临时文件；
+        // 原文件已经删除时临时文件是完整的，用它完成替换
+        File tmpFile = new File(file.getPath() + TransactionManagerImpl.XID_TMP_SUFFIX);
+        if (tmpFile.exists()) {
+            if (file.exists()) {
+                tmpFile.delete();
+            } else if (!tmpFile.renameTo(file)) {
+                Panic.panic(Error.BadXIDFileException);
+            }
+        }
+
         // 1、检查文件是否存在
         if (!file.exists()) {
             Panic.panic(Error.FileNotExistsException);
@@ -137,7 +197,7 @@ public interface TransactionManager {
         }
 
         // 4、创建事务管理器实现类
-        return new TransactionManagerImpl(randomAccessFile, fileChannel);
+        return new TransactionManagerImpl(file, randomAccessFile, fileChannel);
 
     }
 
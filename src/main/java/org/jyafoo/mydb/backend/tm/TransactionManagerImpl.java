@@ -1,18 +1,39 @@
 package org.jyafoo.mydb.backend.tm;
 
+import org.jyafoo.mydb.backend.common.IoMetrics;
+import org.jyafoo.mydb.backend.common.IoStats;
 import org.jyafoo.mydb.backend.utils.Panic;
 import org.jyafoo.mydb.backend.utils.Parser;
 import org.jyafoo.mydb.common.Error;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * 事务管理器实现类
+ * <p>
+ * 所有事务的状态在内存中保存一份（XidStatusTable），可见性判断查询状态时不读文件，只有状态改变时写 XID 文件
+ * <p>
+ * 已经全部结束的早期事务会被冻结：冻结线以下的事务除了少数中止的事务之外都是已提交，
+ * 只记录冻结线和中止事务的区间，XID 文件和状态表只保存冻结线之后的事务。
+ * 冻结后的 XID 文件格式为：[HighWater 8] [Magic 4] [FrozenXid 8] [RangeCount 4] [Start 8, End 8] * N [Status ...]
  *
  * @author jyafoo
  * @since 2024/9/28
@@ -53,6 +74,38 @@ public class TransactionManagerImpl implements TransactionManager {
      */
     static final String XID_SUFFIX = ".xid";
 
+    /**
+     * 压缩 XID 文件时写入的临时文件，文件名为 XID 文件名加上这个后缀，写完之后替换原文件
+     */
+    static final String XID_TMP_SUFFIX = ".tmp";
+
+    /**
+     * 冻结后的文件头标记，紧跟在 HighWater 之后。
+     * 旧格式的文件这里是事务状态（0~2），标记的第一个字节大于2，两种格式不会混淆
+     */
+    private static final int FROZEN_MAGIC = 0x58494452;
+
+    // 冻结后文件头中各字段的偏移
+    private static final int OF_FROZEN_MAGIC = LEN_XID_HEADER_LENGTH;
+    private static final int OF_FROZEN_XID = OF_FROZEN_MAGIC + 4;
+    private static final int OF_ABORTED_COUNT = OF_FROZEN_XID + 8;
+    private static final int OF_ABORTED = OF_ABORTED_COUNT + 4;
+
+    /**
+     * 每个中止区间占用的长度：[Start 8] [End 8]
+     */
+    private static final int ABORTED_RANGE_SIZE = 16;
+
+    /**
+     * 冻结线之后的事务达到这个数量时尝试冻结，正好是状态表的一页
+     */
+    static final int FREEZE_THRESHOLD = 1 << 16;
+
+    /**
+     * XID 文件，压缩时用新文件替换
+     */
+    private final File xidFile;
+
     /**
      * 随机访问文件
      */
@@ -64,21 +117,80 @@ public class TransactionManagerImpl implements TransactionManager {
     private FileChannel fileChannel;
 
     /**
-     * 生成唯一事务ID的计数器，确保每个事务都能获得唯一的ID
+     * 每次预分配的事务号数量
      */
-    private long xidCounter;
+    static final int XID_RANGE = 1024;
 
     /**
-     * 锁对象，用于在多线程环境下保护xidCounter的线程安全
+     * 生成唯一事务ID的计数器，记录最后分配的事务号，确保每个事务都能获得唯一的ID
+     */
+    private final AtomicLong xidCounter = new AtomicLong();
+
+    /**
+     * 已预分配的事务号上限，即 XID 文件头记录的值。文件中已为 1~highWater 的事务写好了活跃状态
+     */
+    private volatile long highWater;
+
+    /**
+     * 打开文件时的事务号上限，之前的事务都不会再有执行者
+     */
+    private long openHighWater;
+
+    /**
+     * 锁对象，保证同一时间只有一个线程预分配事务号
      */
     private Lock counterLock;
 
+    /**
+     * XID 文件的读写锁：写入事务状态、预分配事务号时持有读锁，压缩替换文件时持有写锁
+     */
+    private final ReadWriteLock fileLock = new ReentrantReadWriteLock();
+
+    /**
+     * 冻结线：不超过它的事务都已结束，状态由 frozenAborted 决定
+     * <p>
+     * 冻结时先发布 frozenAborted 再发布 frozenXid，读者先读 frozenXid，读到的中止区间一定覆盖了冻结线以下的事务
+     */
+    private volatile long frozenXid;
+
+    /**
+     * 冻结线以下被中止的事务区间，key：区间起点，value：区间终点（包含），其余都是已提交。
+     * 崩溃后一次中止的预分配事务号是连续的，合并成一个区间记录
+     */
+    private volatile NavigableMap<Long, Long> frozenAborted = Collections.emptyNavigableMap();
+
+    /**
+     * 文件头的长度，事务状态从这里开始存放
+     */
+    private volatile int headerLength = LEN_XID_HEADER_LENGTH;
+
+    /**
+     * XID 文件写入和刷盘的计数器
+     */
+    private final IoMetrics metrics = new IoMetrics();
+
+    /**
+     * 内存中的事务状态表：打开时从 XID 文件读入，之后状态改变时同时写文件和内存，查询只读内存
+     */
+    private final XidStatusTable statusTable = new XidStatusTable();
+
+    /**
+     * 打开文件时读入状态表，每次读取的字节数
+     */
+    private static final int LOAD_CHUNK = 1 << 16;
+
+    /**
+     * 异步提交、还没有写入 XID 文件的事务，状态表中已经是提交状态
+     */
+    private final Set<Long> pendingCommits = ConcurrentHashMap.newKeySet();
+
     /**
      * 在构造函数创建了一个 TransactionManager 之后，首先要对 XID 文件进行校验，以保证这是一个合法的 XID 文件。
      * 校验的方式也很简单，通过文件头的 8 字节数字反推文件的理论长度，与文件的实际长度做对比。如果不同则认为 XID 文件不合法。
      */
 
-    TransactionManagerImpl(RandomAccessFile randomAccessFile, FileChannel fileChannel) {
+    TransactionManagerImpl(File xidFile, RandomAccessFile randomAccessFile, FileChannel fileChannel) {
+        this.xidFile = xidFile;
         this.file = randomAccessFile;
         this.fileChannel = fileChannel;
         counterLock = new ReentrantLock();
@@ -109,12 +221,94 @@ public class TransactionManagerImpl implements TransactionManager {
             Panic.panic(e);
         }
 
-        xidCounter = Parser.parseLong(buf.array());
+        highWater = Parser.parseLong(buf.array());
+        openHighWater = highWater;
+        // 上次预分配但没有用到的事务号不再使用，从上限之后开始分配
+        xidCounter.set(highWater);
+        if (fileLen >= OF_ABORTED) {
+            loadFrozenHeader();
+        }
 
-        long end = getXidPosition(xidCounter + 1);
-        if (end != fileLen) {
+        long end = getXidPosition(highWater + 1);
+        if (end > fileLen) {
             Panic.panic(Error.BadXIDFileException);
         }
+        if (end < fileLen) {
+            // 关闭时收回没有发出的事务号，写完文件头之后没来得及截断文件，多出的部分都是没有用到的活跃状态
+            try {
+                fileChannel.truncate(end);
+                fileChannel.force(false);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+        }
+        loadStatusTable();
+    }
+
+    /**
+     * 读取冻结后的文件头：冻结线和冻结线以下中止的事务区间。旧格式的文件没有冻结信息，保持冻结线为0
+     */
+    private void loadFrozenHeader() {
+        ByteBuffer buf = ByteBuffer.allocate(OF_ABORTED - OF_FROZEN_MAGIC);
+        readFully(buf, OF_FROZEN_MAGIC);
+        byte[] raw = buf.array();
+        if (Parser.parseInt(raw) != FROZEN_MAGIC) {
+            return;
+        }
+        long frozen = Parser.parseLong(Arrays.copyOfRange(raw, OF_FROZEN_XID - OF_FROZEN_MAGIC, OF_ABORTED_COUNT - OF_FROZEN_MAGIC));
+        int count = Parser.parseInt(Arrays.copyOfRange(raw, OF_ABORTED_COUNT - OF_FROZEN_MAGIC, OF_ABORTED - OF_FROZEN_MAGIC));
+        if (frozen < 0 || frozen > highWater || count < 0) {
+            Panic.panic(Error.BadXIDFileException);
+        }
+
+        buf = ByteBuffer.allocate(count * ABORTED_RANGE_SIZE);
+        readFully(buf, OF_ABORTED);
+        raw = buf.array();
+        NavigableMap<Long, Long> aborted = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            int offset = i * ABORTED_RANGE_SIZE;
+            aborted.put(Parser.parseLong(Arrays.copyOfRange(raw, offset, offset + 8)),
+                    Parser.parseLong(Arrays.copyOfRange(raw, offset + 8, offset + ABORTED_RANGE_SIZE)));
+        }
+        frozenAborted = Collections.unmodifiableNavigableMap(aborted);
+        frozenXid = frozen;
+        headerLength = OF_ABORTED + count * ABORTED_RANGE_SIZE;
+    }
+
+    /**
+     * 从 XID 文件的指定位置读满缓冲区，文件不够长说明文件损坏
+     */
+    private void readFully(ByteBuffer buf, long position) {
+        try {
+            while (buf.hasRemaining()) {
+                if (fileChannel.read(buf, position + buf.position()) < 0) {
+                    Panic.panic(Error.BadXIDFileException);
+                }
+            }
+        } catch (IOException e) {
+            Panic.panic(e);
+        }
+    }
+
+    /**
+     * 把 XID 文件中冻结线之后的事务状态读入内存
+     */
+    private void loadStatusTable() {
+        statusTable.truncate(frozenXid);
+        statusTable.ensure(highWater);
+        ByteBuffer buf = ByteBuffer.allocate(LOAD_CHUNK);
+        long xid = frozenXid + 1;
+        while (xid <= highWater) {
+            buf.clear();
+            buf.limit((int) Math.min(LOAD_CHUNK, (highWater - xid + 1) * XID_FIELD_SIZE));
+            readFully(buf, getXidPosition(xid));
+            byte[] raw = buf.array();
+            for (int i = 0; i < buf.limit(); i++, xid++) {
+                if (raw[i] != FIELD_TRAN_ACTIVE) {
+                    statusTable.set(xid, raw[i]);
+                }
+            }
+        }
     }
 
     /**
@@ -124,90 +318,253 @@ public class TransactionManagerImpl implements TransactionManager {
      * @return xid在XID集合中的位置，单位为字节
      */
     private long getXidPosition(long xid) {
-        // 事务 xid 在文件中的状态就存储在 (xid-1)+8 字节处，xid-1 是因为 xid 0（Super XID） 的状态不需要记录
-        return LEN_XID_HEADER_LENGTH + (xid - 1) * XID_FIELD_SIZE;
+        // 事务 xid 在文件中的状态就存储在文件头之后的第 xid-1-frozenXid 字节处，
+        // xid-1 是因为 xid 0（Super XID） 的状态不需要记录，冻结线以下的事务也不再记录
+        return headerLength + (xid - 1 - frozenXid) * XID_FIELD_SIZE;
     }
 
+    /**
+     * 从计数器取下一个事务号。预分配的事务号在文件中已经是活跃状态，不需要写文件；
+     * 用完时才加锁预分配下一批
+     */
     @Override
     public long begin() {
-        counterLock.lock();
-        try {
-            long xid = xidCounter + 1;
+        long xid = xidCounter.incrementAndGet();
+        if (xid > highWater) {
+            allocateRange(xid);
+            if (highWater - frozenXid >= FREEZE_THRESHOLD) {
+                freeze();
+            }
+        }
+        return xid;
+    }
 
-            updateXIDStatus(xid, FIELD_TRAN_ACTIVE);
-            incrXIDCounter();
-            return xid;
+    /**
+     * 更新xid事务的状态为status，刷盘之后再修改内存中的状态
+     *
+     * @param xid    事务标识符，用于定位事务状态的位置
+     * @param status 事务状态
+     */
+    private void updateXIDStatus(long xid, byte status) {
+        fileLock.readLock().lock();
+        try {
+            writeXIDStatus(xid, status);
+            force();
+            statusTable.set(xid, status);
         } finally {
-            counterLock.unlock();
+            fileLock.readLock().unlock();
         }
     }
 
     /**
-     * 更新xid事务的状态为status
+     * 写入xid事务的状态，不刷盘，调用方需要持有文件读锁
+     * <p>
+     * 使用带位置的写，不同事务的状态可以并发写入
      *
      * @param xid    事务标识符，用于定位事务状态的位置
      * @param status 事务状态
      */
-    private void updateXIDStatus(long xid, byte status) {
+    private void writeXIDStatus(long xid, byte status) {
         long offset = getXidPosition(xid);
         byte[] tmp = new byte[XID_FIELD_SIZE];
         tmp[0] = status;
 
         ByteBuffer buf = ByteBuffer.wrap(tmp); // 初始化了一个固定大小的缓冲区用于后续可能的数据读写操作
         try {
-            fileChannel.position(offset);
-            fileChannel.write(buf);
+            fileChannel.write(buf, offset);
         } catch (IOException e) {
             Panic.panic(e);
         }
+        metrics.recordWrite(1, tmp.length);
+    }
 
+    /**
+     * 把 XID 文件刷盘
+     */
+    private void force() {
+        long start = System.nanoTime();
         try {
             // 将文件更改强制写入磁盘，false表示不阻塞其他写操作，true表示阻塞直到写操作完成
             fileChannel.force(false);
         } catch (IOException e) {
             Panic.panic(e);
         }
+        metrics.recordSync(start);
     }
 
     /**
-     * 将 XID 加一，并更新 XID Header
+     * 预分配一批事务号，保证 xid 不超过上限
+     * <p>
+     * 先把新事务号的活跃状态写入文件并刷盘，再更新文件头，保证文件头记录的上限之内的状态都已写入
+     *
+     * @param xid 需要分配的事务号
      */
-    private void incrXIDCounter() {
-        xidCounter++;
-        ByteBuffer buf = ByteBuffer.wrap(Parser.long2Byte(xidCounter)); // 初始化了一个固定大小的缓冲区用于后续可能的数据读写操作
+    private void allocateRange(long xid) {
+        counterLock.lock();
+        fileLock.readLock().lock();
+        try {
+            if (xid <= highWater) {
+                return;
+            }
+            long newHighWater = Math.max(xid, highWater + XID_RANGE);
+            statusTable.ensure(newHighWater);
+
+            ByteBuffer buf = ByteBuffer.allocate((int) ((newHighWater - highWater) * XID_FIELD_SIZE));
+            try {
+                long position = getXidPosition(highWater + 1);
+                while (buf.hasRemaining()) {
+                    fileChannel.write(buf, position + buf.position());
+                }
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            metrics.recordWrite(1, buf.capacity());
+            force();
+
+            buf = ByteBuffer.wrap(Parser.long2Byte(newHighWater));
+            try {
+                fileChannel.write(buf, 0);
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+            metrics.recordWrite(1, LEN_XID_HEADER_LENGTH);
+            force();
+            highWater = newHighWater;
+        } finally {
+            fileLock.readLock().unlock();
+            counterLock.unlock();
+        }
+    }
 
+    /**
+     * 冻结已经结束的事务并压缩 XID 文件
+     * <p>
+     * 从冻结线向后推进，直到遇到第一个活跃或者提交状态还没有写入文件的事务，
+     * 期间中止的事务并入中止区间，其余的都是已提交。之后把新的文件头和冻结线之后的状态写入临时文件，
+     * 刷盘后替换原文件，崩溃时要么是原文件，要么是完整的新文件
+     */
+    @Override
+    public void freeze() {
+        fileLock.writeLock().lock();
         try {
-            fileChannel.position(0);
-            fileChannel.write(buf);
+            long from = frozenXid;
+            long to = from;
+            long limit = xidCounter.get();
+            while (to < limit) {
+                long xid = to + 1;
+                if (statusTable.get(xid) == FIELD_TRAN_ACTIVE || pendingCommits.contains(xid)) {
+                    break;
+                }
+                to = xid;
+            }
+            if (to == from) {
+                return;
+            }
+
+            NavigableMap<Long, Long> aborted = new TreeMap<>(frozenAborted);
+            for (long xid = from + 1; xid <= to; xid++) {
+                if (statusTable.get(xid) != FIELD_TRAN_ABORTED) {
+                    continue;
+                }
+                // 事务号递增，只需要和最后一个区间合并
+                Map.Entry<Long, Long> last = aborted.lastEntry();
+                if (last != null && last.getValue() + 1 == xid) {
+                    aborted.put(last.getKey(), xid);
+                } else {
+                    aborted.put(xid, xid);
+                }
+            }
+            writeFrozenFile(to, aborted);
+
+            frozenAborted = Collections.unmodifiableNavigableMap(aborted);
+            frozenXid = to;
+            headerLength = OF_ABORTED + aborted.size() * ABORTED_RANGE_SIZE;
+            statusTable.truncate(to);
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 写出冻结到 frozen 之后的 XID 文件并替换原文件，之后的读写都使用新文件
+     * <p>
+     * 异步提交还没有写入文件的事务按活跃状态写出，与原文件一致
+     */
+    private void writeFrozenFile(long frozen, NavigableMap<Long, Long> aborted) {
+        int length = OF_ABORTED + aborted.size() * ABORTED_RANGE_SIZE;
+        ByteBuffer buf = ByteBuffer.allocate((int) (length + (highWater - frozen) * XID_FIELD_SIZE));
+        buf.putLong(highWater);
+        buf.putInt(FROZEN_MAGIC);
+        buf.putLong(frozen);
+        buf.putInt(aborted.size());
+        for (Map.Entry<Long, Long> range : aborted.entrySet()) {
+            buf.putLong(range.getKey());
+            buf.putLong(range.getValue());
+        }
+        for (long xid = frozen + 1; xid <= highWater; xid++) {
+            buf.put(pendingCommits.contains(xid) ? FIELD_TRAN_ACTIVE : statusTable.get(xid));
+        }
+        buf.flip();
+
+        File tmpFile = new File(xidFile.getPath() + XID_TMP_SUFFIX);
+        try (RandomAccessFile tmp = new RandomAccessFile(tmpFile, "rw")) {
+            FileChannel channel = tmp.getChannel();
+            channel.truncate(0);
+            while (buf.hasRemaining()) {
+                channel.write(buf, buf.position());
+            }
+            channel.force(false);
         } catch (IOException e) {
             Panic.panic(e);
         }
+        metrics.recordWrite(1, buf.limit());
+
+        // 先关闭原文件再替换，部分平台不允许替换打开中的文件。
+        // 不能直接覆盖时先删除原文件，此时临时文件已经完整，打开时发现只有临时文件会用它完成替换
         try {
-            fileChannel.force(false);
+            fileChannel.close();
+            file.close();
+            if (!tmpFile.renameTo(xidFile) && !(xidFile.delete() && tmpFile.renameTo(xidFile))) {
+                Panic.panic(Error.BadXIDFileException);
+            }
+            file = new RandomAccessFile(xidFile, "rw");
+            fileChannel = file.getChannel();
         } catch (IOException e) {
             Panic.panic(e);
         }
     }
 
     /**
-     * 检测XID事务是否处于status状态
+     * 检测XID事务是否处于status状态，只读取内存中的状态表
      *
      * @param xid    事务 XID
      * @param status 事务状态
      * @return 如果事务的当前状态与给定的状态相同，则返回true；否则返回false
      */
     private boolean checkXID(long xid, byte status) {
-        long offset = getXidPosition(xid);
-        ByteBuffer buf = ByteBuffer.wrap(new byte[XID_FIELD_SIZE]); // 初始化了一个固定大小的缓冲区用于后续可能的数据读写操作
-
-        try {
-            fileChannel.position(offset);
-            fileChannel.read(buf);
-        } catch (IOException e) {
-            Panic.panic(e);
+        if (xid > frozenXid) {
+            byte current = statusTable.get(xid);
+            // 状态页已经释放时，冻结线一定已经越过了这个事务
+            if (current != XidStatusTable.RELEASED) {
+                return current == status;
+            }
         }
+        return (isFrozenAborted(xid) ? FIELD_TRAN_ABORTED : FIELD_TRAN_COMMITTED) == status;
+    }
 
-        return buf.array()[0] == status;
+    /**
+     * 冻结线以下的事务是否落在某个中止区间内
+     */
+    private boolean isFrozenAborted(long xid) {
+        Map.Entry<Long, Long> range = frozenAborted.floorEntry(xid);
+        return range != null && xid <= range.getValue();
+    }
+
+    /**
+     * 冻结线以下中止区间的数量
+     */
+    int frozenAbortedRanges() {
+        return frozenAborted.size();
     }
 
     @Override
@@ -215,6 +572,59 @@ public class TransactionManagerImpl implements TransactionManager {
         updateXIDStatus(xid, FIELD_TRAN_COMMITTED);
     }
 
+    @Override
+    public void commitAsync(long xid) {
+        pendingCommits.add(xid);
+        statusTable.set(xid, FIELD_TRAN_COMMITTED);
+    }
+
+    /**
+     * 先取出当前异步提交的事务，再等待日志刷盘：这些事务的日志在提交之前都已写入日志队列。
+     * 状态表中已经是提交状态，这里只需要写入文件
+     */
+    @Override
+    public void syncCommits(Runnable flushLog) {
+        if (pendingCommits.isEmpty()) {
+            return;
+        }
+        List<Long> xids = new ArrayList<>(pendingCommits);
+        flushLog.run();
+        fileLock.readLock().lock();
+        try {
+            for (long xid : xids) {
+                writeXIDStatus(xid, FIELD_TRAN_COMMITTED);
+            }
+            force();
+            pendingCommits.removeAll(xids);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 打开文件时仍处于活跃状态的事务已经没有执行者：有日志的事务已经由恢复过程回滚，
+     * 其余的是预分配之后没有用到、开始之后什么都没做、或者正常关闭时还没有结束的事务，一并标记为中止
+     */
+    @Override
+    public void abortUnfinished() {
+        fileLock.readLock().lock();
+        try {
+            boolean written = false;
+            for (long xid = frozenXid + 1; xid <= openHighWater; xid++) {
+                if (statusTable.get(xid) == FIELD_TRAN_ACTIVE) {
+                    writeXIDStatus(xid, FIELD_TRAN_ABORTED);
+                    statusTable.set(xid, FIELD_TRAN_ABORTED);
+                    written = true;
+                }
+            }
+            if (written) {
+                force();
+            }
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
     @Override
     public void abort(long xid) {
         updateXIDStatus(xid, FIELD_TRAN_ABORTED);
@@ -244,8 +654,76 @@ public class TransactionManagerImpl implements TransactionManager {
         return checkXID(xid, FIELD_TRAN_ABORTED);
     }
 
+    @Override
+    public boolean isCommitPersisted(long xid) {
+        return isCommitted(xid) && !pendingCommits.contains(xid);
+    }
+
+    @Override
+    public IoStats stats() {
+        IoStats stats = metrics.snapshot("xid file");
+        fileLock.readLock().lock();
+        try {
+            stats.put("file size", fileChannel.size());
+        } catch (IOException e) {
+            Panic.panic(e);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+        stats.put("xid counter", xidCounter.get());
+        stats.put("xid high water", highWater);
+        stats.put("frozen xid", frozenXid);
+        stats.put("frozen aborted ranges", frozenAborted.size());
+        return stats;
+    }
+
+    /**
+     * 正常关闭时收回预分配但没有发出的事务号：文件头改为最后发出的事务号并截断文件，
+     * 下次打开从这里继续分配，这些事务号不会在打开时被当作中止的事务记录下来。
+     * 已经发出但还没有结束的事务不再有执行者，标记为中止
+     * <p>
+     * 先写文件头再截断，两步之间崩溃时打开会截断多出的部分
+     */
+    private void releaseUnissued() {
+        fileLock.writeLock().lock();
+        try {
+            long issued = xidCounter.get();
+            boolean written = false;
+            for (long xid = frozenXid + 1; xid <= issued; xid++) {
+                if (statusTable.get(xid) == FIELD_TRAN_ACTIVE) {
+                    writeXIDStatus(xid, FIELD_TRAN_ABORTED);
+                    statusTable.set(xid, FIELD_TRAN_ABORTED);
+                    written = true;
+                }
+            }
+            if (written) {
+                force();
+            }
+            if (issued >= highWater) {
+                return;
+            }
+
+            try {
+                fileChannel.write(ByteBuffer.wrap(Parser.long2Byte(issued)), 0);
+                metrics.recordWrite(1, LEN_XID_HEADER_LENGTH);
+                force();
+                highWater = issued;
+                fileChannel.truncate(getXidPosition(issued + 1));
+                force();
+            } catch (IOException e) {
+                Panic.panic(e);
+            }
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
     @Override
     public void close() {
+        // 调用方先关闭数据管理器，此时日志都已刷盘
+        syncCommits(() -> {
+        });
+        releaseUnissued();
         try {
             fileChannel.close();
             file.close();
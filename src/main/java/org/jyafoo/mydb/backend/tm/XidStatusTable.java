@@ -0,0 +1,125 @@
+package org.jyafoo.mydb.backend.tm;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 内存中的事务状态表：每个事务的状态占2位，一个 long 保存32个事务
+ * <p>
+ * 状态表按页分配，每页保存 PAGE_XIDS 个事务，随着事务的增加追加新页。
+ * 查询状态是一次无锁的内存读取，修改状态使用 CAS，只有追加新页时需要调用方加锁。
+ * 没有分配到的事务状态为0，即活跃，与 XID 文件中未写入的状态一致。
+ * 冻结之后，全部位于冻结线以下的页被释放，查询这些事务返回 RELEASED
+ *
+ * @author jyafoo
+ * @since 2024/10/14
+ */
+class XidStatusTable {
+
+    /**
+     * 每页保存的事务数为 2^PAGE_SHIFT
+     */
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_XIDS = 1 << PAGE_SHIFT;
+
+    /**
+     * 每个 long 保存的事务数
+     */
+    private static final int XIDS_PER_WORD = 32;
+
+    private static final long STATUS_MASK = 0b11;
+
+    /**
+     * 事务所在的页已经释放
+     */
+    static final byte RELEASED = -1;
+
+    /**
+     * 这一页之前的页都已释放，之后追加的页也不再分配
+     */
+    private int firstPage;
+
+    /**
+     * 状态页，下标为 (xid - 1) / PAGE_XIDS
+     */
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+
+    /**
+     * 获取事务的状态
+     *
+     * @param xid 事务xid，从1开始
+     */
+    byte get(long xid) {
+        long index = xid - 1;
+        AtomicLongArray[] pages = this.pages;
+        int pageNo = (int) (index >>> PAGE_SHIFT);
+        if (pageNo >= pages.length) {
+            return 0;
+        }
+        AtomicLongArray page = pages[pageNo];
+        if (page == null) {
+            return RELEASED;
+        }
+        int slot = (int) (index & (PAGE_XIDS - 1));
+        long word = page.get(slot / XIDS_PER_WORD);
+        return (byte) ((word >>> shift(slot)) & STATUS_MASK);
+    }
+
+    /**
+     * 设置事务的状态，事务所在的页必须已经分配
+     *
+     * @param xid    事务xid，从1开始
+     * @param status 事务状态，取值0~3
+     */
+    void set(long xid, byte status) {
+        long index = xid - 1;
+        AtomicLongArray page = pages[(int) (index >>> PAGE_SHIFT)];
+        int slot = (int) (index & (PAGE_XIDS - 1));
+        int word = slot / XIDS_PER_WORD;
+        int shift = shift(slot);
+        long old;
+        long updated;
+        do {
+            old = page.get(word);
+            updated = (old & ~(STATUS_MASK << shift)) | ((long) status << shift);
+        } while (!page.compareAndSet(word, old, updated));
+    }
+
+    /**
+     * 保证事务 1~xid 所在的页都已分配，调用方需要保证同一时间只有一个线程追加
+     *
+     * @param xid 事务xid
+     */
+    void ensure(long xid) {
+        int need = (int) ((xid - 1) >>> PAGE_SHIFT) + 1;
+        AtomicLongArray[] pages = this.pages;
+        if (need <= pages.length) {
+            return;
+        }
+        AtomicLongArray[] grown = Arrays.copyOf(pages, need);
+        for (int i = Math.max(pages.length, firstPage); i < need; i++) {
+            grown[i] = new AtomicLongArray(PAGE_XIDS / XIDS_PER_WORD);
+        }
+        this.pages = grown;
+    }
+
+    /**
+     * 释放全部位于 1~xid 之内的页，这些事务之后不再查询和修改。调用方需要保证不与 ensure 同时执行
+     *
+     * @param xid 冻结线
+     */
+    void truncate(long xid) {
+        int count = (int) (xid >>> PAGE_SHIFT);
+        if (count <= firstPage) {
+            return;
+        }
+        AtomicLongArray[] released = this.pages.clone();
+        Arrays.fill(released, 0, Math.min(count, released.length), null);
+        firstPage = count;
+        this.pages = released;
+    }
+
+    private static int shift(int slot) {
+        return (slot % XIDS_PER_WORD) * 2;
+    }
+}
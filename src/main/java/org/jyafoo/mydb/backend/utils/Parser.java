@@ -35,6 +35,22 @@ public class Parser {
         return buffer.getLong();
     }
 
+    /**
+     * 从数组的指定位置解析，不复制数组，用于逐条解码大量日志等场景
+     */
+    public static short parseShort(byte[] buf, int offset) {
+        return (short) ((buf[offset] & 0xFF) << 8 | buf[offset + 1] & 0xFF);
+    }
+
+    public static int parseInt(byte[] buf, int offset) {
+        return (buf[offset] & 0xFF) << 24 | (buf[offset + 1] & 0xFF) << 16
+                | (buf[offset + 2] & 0xFF) << 8 | buf[offset + 3] & 0xFF;
+    }
+
+    public static long parseLong(byte[] buf, int offset) {
+        return (long) parseInt(buf, offset) << 32 | parseInt(buf, offset + 4) & 0xFFFFFFFFL;
+    }
+
     public static byte[] long2Byte(long value) {
         return ByteBuffer.allocate(Long.SIZE / Byte.SIZE).putLong(value).array();
     }
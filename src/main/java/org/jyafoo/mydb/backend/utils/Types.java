@@ -11,12 +11,32 @@ public class Types {
      * 该方法用于将两个部分（页号和偏移量）合并成一个唯一的标识符（UID）
      *
      * @param pgno   页号，表示数据所在的页数
-     * @param offset 偏移量，表示在页中的相对位置
+     * @param offset 偏移量，表示在页中的相对位置，按2字节无符号数存储
      * @return 返回组合后的唯一标识符（UID）
      */
-    public static long addressToUid(int pgno, short offset) {
+    public static long addressToUid(int pgno, int offset) {
         long u0 = pgno;
-        long u1 = offset;
+        long u1 = offset & ((1L << 16) - 1);
         return u0 << 32 | u1;
     }
+
+    /**
+     * 从UID中解析出页号
+     *
+     * @param uid 唯一标识符
+     * @return 页号
+     */
+    public static int uidToPgno(long uid) {
+        return (int) ((uid >>> 32) & ((1L << 32) - 1));
+    }
+
+    /**
+     * 从UID中解析出页内偏移量
+     *
+     * @param uid 唯一标识符
+     * @return 页内偏移量
+     */
+    public static int uidToOffset(long uid) {
+        return (int) (uid & ((1L << 16) - 1));
+    }
 }
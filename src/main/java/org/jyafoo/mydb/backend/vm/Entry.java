@@ -5,6 +5,9 @@ import lombok.Data;
 import lombok.Getter;
 import org.jyafoo.mydb.backend.common.SubArray;
 import org.jyafoo.mydb.backend.dm.dataItem.DataItem;
+import org.jyafoo.mydb.backend.dm.page.Page;
+import org.jyafoo.mydb.backend.tm.TransactionManager;
+import org.jyafoo.mydb.backend.tm.TransactionManagerImpl;
 import org.jyafoo.mydb.backend.utils.Parser;
 
 import java.util.Arrays;
@@ -32,6 +35,24 @@ public class Entry {
      */
     private static final int OF_DATA = OF_XMAX + 8;
 
+    /*
+        提示位：XMIN、XMAX 字段最高字节的高两位，记录对应事务已经确定的最终状态。
+        读者第一次从事务管理器得知事务已提交或已中止时顺手设置，之后的读者不再查询事务管理器。
+        提示位可以随时丢失（重新查询即可），所以设置时不写日志，只把页面标记为脏页
+     */
+    /**
+     * 提示位：事务已提交
+     */
+    private static final byte HINT_COMMITTED = (byte) 0x80;
+    /**
+     * 提示位：事务已中止
+     */
+    private static final byte HINT_ABORTED = 0x40;
+    /**
+     * 去掉提示位之后的事务编号
+     */
+    private static final long XID_MASK = 0x3FFFFFFFFFFFFFFFL;
+
     /**
      * 数据项唯一标识
      * -- GETTER --
@@ -137,7 +158,7 @@ public class Entry {
         dataItem.rLock();
         try {
             SubArray subArray = dataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(subArray.raw, subArray.start + OF_XMIN, subArray.start + OF_XMAX));
+            return Parser.parseLong(Arrays.copyOfRange(subArray.raw, subArray.start + OF_XMIN, subArray.start + OF_XMAX)) & XID_MASK;
         } finally {
             dataItem.rUnLock();
         }
@@ -152,12 +173,100 @@ public class Entry {
         dataItem.rLock();
         try {
             SubArray sa = dataItem.data();
-            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start + OF_XMAX, sa.start + OF_DATA));
+            return Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start + OF_XMAX, sa.start + OF_DATA)) & XID_MASK;
         } finally {
             dataItem.rUnLock();
         }
     }
 
+    /**
+     * 判断创建该条记录的事务是否已提交，优先读取提示位
+     *
+     * @param tm   事务管理器
+     * @param xmin 之前读到的 XMIN
+     */
+    boolean isXminCommitted(TransactionManager tm, long xmin) {
+        return isCommitted(tm, OF_XMIN, xmin);
+    }
+
+    /**
+     * 判断删除该条记录的事务是否已提交，优先读取提示位
+     *
+     * @param tm   事务管理器
+     * @param xmax 之前读到的 XMAX
+     */
+    boolean isXmaxCommitted(TransactionManager tm, long xmax) {
+        return isCommitted(tm, OF_XMAX, xmax);
+    }
+
+    /**
+     * 读取 offset 处事务编号的提示位，没有提示位时查询事务管理器，得到最终状态后设置提示位
+     * <p>
+     * 异步提交的事务在提交状态刷盘之前不设置提示位：页面可能先于 XID 文件写回磁盘，
+     * 崩溃后这个事务会被回滚，提示位却留在了页面上
+     */
+    private boolean isCommitted(TransactionManager tm, int offset, long xid) {
+        if (xid == TransactionManagerImpl.SUPER_XID) {
+            return tm.isCommitted(xid);
+        }
+        byte hint = getHint(offset, xid);
+        if (hint == HINT_COMMITTED) {
+            return true;
+        }
+        if (hint == HINT_ABORTED) {
+            return false;
+        }
+        if (tm.isCommitted(xid)) {
+            if (tm.isCommitPersisted(xid)) {
+                setHint(offset, xid, HINT_COMMITTED);
+            }
+            return true;
+        }
+        if (tm.isAborted(xid)) {
+            setHint(offset, xid, HINT_ABORTED);
+        }
+        return false;
+    }
+
+    /**
+     * 读取 offset 处的提示位；字段中的事务编号已经不是 xid 时（被其他事务改写），返回0
+     */
+    private byte getHint(int offset, long xid) {
+        dataItem.rLock();
+        try {
+            SubArray sa = dataItem.data();
+            long field = Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start + offset, sa.start + offset + 8));
+            if ((field & XID_MASK) != xid) {
+                return 0;
+            }
+            return (byte) (sa.raw[sa.start + offset] & (HINT_COMMITTED | HINT_ABORTED));
+        } finally {
+            dataItem.rUnLock();
+        }
+    }
+
+    /**
+     * 设置 offset 处的提示位。不经过 before/after，不产生日志，只把页面标记为脏页；
+     * 持有写锁，不会和正在记录前相的修改交错
+     */
+    private void setHint(int offset, long xid, byte hint) {
+        dataItem.wLock();
+        try {
+            SubArray sa = dataItem.data();
+            long field = Parser.parseLong(Arrays.copyOfRange(sa.raw, sa.start + offset, sa.start + offset + 8));
+            if ((field & XID_MASK) != xid) {
+                return;
+            }
+            sa.raw[sa.start + offset] |= hint;
+            Page page = dataItem.page();
+            if (page != null) {
+                page.setDirty(true);
+            }
+        } finally {
+            dataItem.wUnLock();
+        }
+    }
+
     /**
      * 释放entry对象的资源
      */
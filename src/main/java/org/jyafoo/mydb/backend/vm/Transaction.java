@@ -40,6 +40,11 @@ public class Transaction {
      */
     public boolean autoAborted;
 
+    /**
+     * 是否异步提交：写日志和提交时不等待刷盘
+     */
+    public boolean asyncCommit;
+
     /**
      * 创建并返回一个新的事务对象
      *
@@ -1,8 +1,12 @@
 package org.jyafoo.mydb.backend.vm;
 
+import org.jyafoo.mydb.backend.common.CacheStats;
+import org.jyafoo.mydb.backend.common.IoStats;
 import org.jyafoo.mydb.backend.dm.DataManager;
 import org.jyafoo.mydb.backend.tm.TransactionManager;
 
+import java.util.List;
+
 /**
  * 版本管理器，实现了调度序列的可串行化，向上层提供功能
  *
@@ -48,6 +52,17 @@ public interface VersionManager {
      */
     long begin(int level);
 
+    /**
+     * 开启一个新事务
+     *
+     * @param level       隔离级别
+     * @param asyncCommit 是否异步提交：提交时不等待日志和 XID 文件刷盘
+     * @return 事务xid
+     */
+    default long begin(int level, boolean asyncCommit) {
+        return begin(level);
+    }
+
     /**
      *
      * @param xid
@@ -61,6 +76,25 @@ public interface VersionManager {
      */
     void abort(long xid);
 
+    /**
+     * 关闭版本管理器：停止后台线程，写入尚未持久化的异步提交。需要在关闭数据管理器和事务管理器之前调用
+     */
+    void close();
+
+    /**
+     * 获取版本管理器中缓存的统计信息
+     */
+    default List<CacheStats> stats() {
+        return List.of();
+    }
+
+    /**
+     * 获取版本管理器中文件写入的统计信息
+     */
+    default List<IoStats> ioStats() {
+        return List.of();
+    }
+
     public static VersionManager newVersionManager(TransactionManager tm, DataManager dm) {
         return new VersionManagerImpl(tm, dm);
     }
@@ -1,13 +1,18 @@
 package org.jyafoo.mydb.backend.vm;
 
 import org.jyafoo.mydb.backend.common.AbstractCache;
+import org.jyafoo.mydb.backend.common.CacheStats;
+import org.jyafoo.mydb.backend.common.IoStats;
 import org.jyafoo.mydb.backend.dm.DataManager;
 import org.jyafoo.mydb.backend.tm.TransactionManager;
 import org.jyafoo.mydb.backend.tm.TransactionManagerImpl;
+import org.jyafoo.mydb.backend.utils.Panic;
 import org.jyafoo.mydb.common.Error;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -29,11 +34,14 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
     DataManager dm;
     /**
      * 正在执行中的事务，key：事务xid，value：事务快照
+     * <p>
+     * 每条语句都要查询所属的事务，使用并发哈希表，查询和提交、中止时的移除都不需要加锁
      */
     Map<Long, Transaction> activeTransaction;
 
     /**
-     * 锁
+     * 开启事务的锁：分配事务号、复制快照、登记到 activeTransaction 作为一个整体，
+     * 保证先分配到事务号的事务一定出现在之后开始的事务的快照中
      */
     Lock lock;
 
@@ -42,14 +50,74 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
      */
     LockTable lockTable;
 
+    /**
+     * 默认的异步提交刷盘周期，单位毫秒
+     */
+    public static final long ASYNC_COMMIT_WINDOW = 10;
+
+    /**
+     * 异步提交刷盘周期：异步提交后最多经过这么长时间，日志和 XID 文件就会刷盘，崩溃时最多丢失这段时间内的异步提交
+     */
+    private final long asyncCommitWindow;
+
+    private final Lock syncLock;
+    private final Condition syncWanted;
+    private boolean syncPending;
+    private boolean running;
+    private final Thread syncer;
+
     public VersionManagerImpl(TransactionManager tm, DataManager dm) {
+        this(tm, dm, ASYNC_COMMIT_WINDOW);
+    }
+
+    public VersionManagerImpl(TransactionManager tm, DataManager dm, long asyncCommitWindow) {
         super(0);
         this.tm = tm;
         this.dm = dm;
-        this.activeTransaction = new HashMap<>();
+        this.activeTransaction = new ConcurrentHashMap<>();
         activeTransaction.put(TransactionManagerImpl.SUPER_XID, Transaction.newTransaction(TransactionManagerImpl.SUPER_XID, 0, null));
         this.lock = new ReentrantLock();
         this.lockTable = new LockTable();
+
+        this.asyncCommitWindow = asyncCommitWindow;
+        this.syncLock = new ReentrantLock();
+        this.syncWanted = syncLock.newCondition();
+        this.running = true;
+        this.syncer = new Thread(this::syncLoop, "commit-syncer");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+    }
+
+    /**
+     * 异步提交刷盘线程：有异步提交时等待一个刷盘周期，把期间的提交一起写入 XID 文件并刷盘。
+     * 写入之前先等待日志刷盘，保证已提交事务的日志一定先持久化。关闭时退出，剩余的提交由 close 写入
+     */
+    private void syncLoop() {
+        while (true) {
+            syncLock.lock();
+            try {
+                while (running && !syncPending) {
+                    syncWanted.awaitUninterruptibly();
+                }
+                if (!running) {
+                    return;
+                }
+            } finally {
+                syncLock.unlock();
+            }
+            try {
+                Thread.sleep(asyncCommitWindow);
+            } catch (InterruptedException e) {
+                return;
+            }
+            syncLock.lock();
+            try {
+                syncPending = false;
+            } finally {
+                syncLock.unlock();
+            }
+            tm.syncCommits(dm::flushLog);
+        }
     }
 
     @Override
@@ -71,9 +139,7 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
      */
     @Override
     public byte[] read(long xid, long uid) throws Exception {
-        lock.lock();
         Transaction transaction = activeTransaction.get(xid);
-        lock.unlock();
 
         if (transaction.err != null) {
             throw transaction.err;
@@ -103,9 +169,7 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
 
     @Override
     public long insert(long xid, byte[] data) throws Exception {
-        lock.lock();
         Transaction transaction = activeTransaction.get(xid);
-        lock.unlock();
 
         if (transaction.err != null) {
             throw transaction.err;
@@ -124,9 +188,7 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
      */
     @Override
     public boolean delete(long xid, long uid) throws Exception {
-        lock.lock();
         Transaction transaction = activeTransaction.get(xid);
-        lock.unlock();
 
         if (transaction.err != null) {
             throw transaction.err;
@@ -192,10 +254,19 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
      */
     @Override
     public long begin(int level) {
+        return begin(level, false);
+    }
+
+    @Override
+    public long begin(int level, boolean asyncCommit) {
         lock.lock();
         try {
             long xid = tm.begin();
             Transaction transaction = Transaction.newTransaction(xid, level, activeTransaction);
+            transaction.asyncCommit = asyncCommit;
+            if (asyncCommit) {
+                dm.setAsyncCommit(xid, true);
+            }
             activeTransaction.put(xid, transaction);
             return xid;
         } finally {
@@ -208,25 +279,30 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
      */
     @Override
     public void commit(long xid) throws Exception {
-        lock.lock();
         Transaction transaction = activeTransaction.get(xid);
-        lock.unlock();
 
-        try {
-            if (transaction.err != null) {
-                throw transaction.err;
-            }
-        } catch (Exception e) {
-            System.out.println(xid);
-            System.out.println(activeTransaction.keySet());
+        // 已经被自动中止（死锁或版本跳跃）的事务不能再提交，保留在活跃表中，等待调用方 abort
+        if (transaction.err != null) {
+            throw transaction.err;
         }
 
-        lock.lock();
         activeTransaction.remove(xid);
-        lock.unlock();
 
         lockTable.remove(xid);
-        tm.commit(xid);
+        if (transaction.asyncCommit) {
+            // 提交状态先保存在内存中，由刷盘线程在一个刷盘周期内统一写入 XID 文件
+            dm.setAsyncCommit(xid, false);
+            tm.commitAsync(xid);
+            syncLock.lock();
+            try {
+                syncPending = true;
+                syncWanted.signal();
+            } finally {
+                syncLock.unlock();
+            }
+        } else {
+            tm.commit(xid);
+        }
     }
 
     @Override
@@ -243,13 +319,11 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
      * @param autoAborted 事务是否是自动中止的标志
      */
     private void internAbort(long xid, boolean autoAborted) {
-        lock.lock();
-        Transaction transaction = activeTransaction.get(xid);
-        if (!autoAborted) {
-            activeTransaction.remove(xid);
-        }
-        lock.unlock();
+        Transaction transaction = autoAborted ? activeTransaction.get(xid) : activeTransaction.remove(xid);
 
+        if (!autoAborted && transaction.asyncCommit) {
+            dm.setAsyncCommit(xid, false);
+        }
         if (transaction.autoAborted) {
             return;
         }
@@ -258,6 +332,38 @@ public class VersionManagerImpl extends AbstractCache<Entry> implements VersionM
         tm.abort(xid);
     }
 
+    @Override
+    public List<CacheStats> stats() {
+        return List.of(stats("entry cache"));
+    }
+
+    @Override
+    public List<IoStats> ioStats() {
+        IoStats stats = tm.stats();
+        return stats == null ? List.of() : List.of(stats);
+    }
+
+    /**
+     * 停止异步提交刷盘线程，把刷盘周期内还没有写入 XID 文件的异步提交全部写入。
+     * 需要在关闭数据管理器和事务管理器之前调用
+     */
+    @Override
+    public void close() {
+        syncLock.lock();
+        try {
+            running = false;
+            syncWanted.signal();
+        } finally {
+            syncLock.unlock();
+        }
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Panic.panic(e);
+        }
+        tm.syncCommits(dm::flushLog);
+    }
+
     /**
      * 释放指定的Entry资源
      *
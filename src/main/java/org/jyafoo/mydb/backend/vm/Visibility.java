@@ -27,7 +27,7 @@ public class Visibility {
         } else {
             // TODO (jyafoo,2024/10/3,20:48) Q：isVersionSkip的跳过逻辑怎么理解，感觉上下文有点割裂了
             // 当且仅当最新事务已经提交，并且其标识大于当前事务标识或在当前事务快照中时，才跳过版本检查
-            return tm.isCommitted(xmax) && (xmax > transaction.xid || transaction.isInSnapshot(xmax));
+            return entry.isXmaxCommitted(tm, xmax) && (xmax > transaction.xid || transaction.isInSnapshot(xmax));
         }
     }
 
@@ -78,12 +78,12 @@ public class Visibility {
         if (xmin == xid && xmax == 0) {
             return true;
         }
-        if (tm.isCommitted(xmin)) {
+        if (entry.isXminCommitted(tm, xmin)) {
             if (xmax == 0) {
                 return true;
             }
             if (xid != xmax) {
-                if (!tm.isCommitted(xmax)) {
+                if (!entry.isXmaxCommitted(tm, xmax)) {
                     return true;
                 }
             }
@@ -124,13 +124,13 @@ public class Visibility {
             ))))
          */
         // TODO (jyafoo,2024/10/3,20:30) RR的处理逻辑好绕
-        if (tm.isCommitted(xmin) && xmin < xid && !transaction.isInSnapshot(xmin)) {
+        if (entry.isXminCommitted(tm, xmin) && xmin < xid && !transaction.isInSnapshot(xmin)) {
             if (xmax == 0) {
                 return true;
             }
 
             if (xmax != xid) {
-                if (!tm.isCommitted(xmax) || xmax > xid || transaction.isInSnapshot(xmax)) {
+                if (!entry.isXmaxCommitted(tm, xmax) || xmax > xid || transaction.isInSnapshot(xmax)) {
                     return true;
                 }
             }
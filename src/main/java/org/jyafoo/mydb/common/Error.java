@@ -16,6 +16,7 @@ public class Error {
     public static final Exception DataTooLargeException = new RuntimeException("Data too large!");
     public static final Exception DatabaseBusyException = new RuntimeException("Database is busy!");
     public static final Exception InvalidTypeException = new RuntimeException("Operation Error!");
+    public static final Exception InvalidPageSizeException = new RuntimeException("Invalid page size!");
 
     // tm
     public static final Exception BadXIDFileException = new RuntimeException("Bad XID file!");
@@ -47,4 +48,6 @@ public class Error {
 
     // launcher
     public static final Exception InvalidMemException = new RuntimeException("Invalid memory!");
+    public static final Exception InvalidPageCacheModeException = new RuntimeException("Invalid page cache mode!");
+    public static final Exception InvalidCommitWindowException = new RuntimeException("Invalid commit window!");
 }
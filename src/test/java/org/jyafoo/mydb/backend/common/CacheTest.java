@@ -3,6 +3,8 @@ package org.jyafoo.mydb.backend.common;
 import java.security.SecureRandom;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.jyafoo.mydb.backend.utils.Panic;
@@ -30,6 +32,108 @@ public class CacheTest {
         }
     }
 
+    @Test
+    public void testConcurrentLoadSameKey() throws Exception {
+        AtomicInteger loads = new AtomicInteger(0);
+        AbstractCache<Long> slowCache = new AbstractCache<Long>(0) {
+            @Override
+            protected Long getForCache(long key) throws Exception {
+                loads.incrementAndGet();
+                Thread.sleep(50);
+                return key;
+            }
+
+            @Override
+            protected void releaseForCache(Long obj) {
+            }
+        };
+
+        int threads = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicInteger errors = new AtomicInteger(0);
+        for(int i = 0; i < threads; i ++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    if(slowCache.get(7) != 7L) errors.incrementAndGet();
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assert errors.get() == 0;
+        // 同一个key的并发加载者共享一次加载
+        assert loads.get() == 1;
+        assert slowCache.getMissCount() == 1;
+        assert slowCache.getHitCount() == threads - 1;
+    }
+
+    @Test
+    public void testWriteBackOutsideCompute() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        AbstractCache<Long> resident = new AbstractCache<Long>(0, new ClockReplacer()) {
+            @Override
+            protected Long getForCache(long key) throws Exception {
+                return key;
+            }
+
+            @Override
+            protected void releaseForCache(Long obj) {
+            }
+        };
+        // 1 和 17 落在 ConcurrentHashMap 的同一个桶中
+        resident.get(1);
+        resident.release(1);
+        resident.get(17);
+        resident.release(17);
+
+        Thread writer = new Thread(() -> resident.withUnpinned(1, v -> {
+            writing.countDown();
+            try {
+                finish.await();
+            } catch (InterruptedException e) {
+                Panic.panic(e);
+            }
+        }));
+        writer.start();
+        writing.await();
+
+        // 写回期间同一个桶中的其他资源可以正常引用
+        CountDownLatch other = new CountDownLatch(1);
+        new Thread(() -> {
+            try {
+                resident.get(17);
+                resident.release(17);
+                other.countDown();
+            } catch (Exception e) {
+                Panic.panic(e);
+            }
+        }).start();
+        assert other.await(5, TimeUnit.SECONDS);
+
+        // 正在写回的资源要等写回结束才能引用
+        CountDownLatch same = new CountDownLatch(1);
+        new Thread(() -> {
+            try {
+                resident.get(1);
+                resident.release(1);
+                same.countDown();
+            } catch (Exception e) {
+                Panic.panic(e);
+            }
+        }).start();
+        assert !same.await(100, TimeUnit.MILLISECONDS);
+        finish.countDown();
+        assert same.await(5, TimeUnit.SECONDS);
+        writer.join();
+    }
+
     private void work() {
         for(int i = 0; i < 1000; i++) {
             long uid = random.nextInt();
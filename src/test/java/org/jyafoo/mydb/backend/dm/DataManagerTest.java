@@ -117,6 +117,47 @@ public class DataManagerTest {
 
         new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TESTDMSingle.db").delete();
         new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TESTDMSingle.log").delete();
+        new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TESTDMSingle.log.000000").delete();
+    }
+
+    @Test
+    public void testDMPageSize() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestDMPageSize";
+        int pageSize = PageCache.MAX_PAGE_SIZE;
+        TransactionManager tm0 = new MockTransactionManager();
+        DataManager dm0 = DataManager.create(path, pageSize * 10, tm0, pageSize);
+
+        List<Long> uids = new ArrayList<>();
+        List<byte[]> datas = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] data = RandomUtil.randomBytes(1000);
+            uids.add(dm0.insert(0, data));
+            datas.add(data);
+        }
+        dm0.close();
+
+        // 重新打开时沿用创建时的页大小；不正常关闭后通过恢复流程重建数据
+        for (boolean crash : new boolean[]{false, true}) {
+            dm0 = DataManager.open(path, PageCache.PAGE_SIZE * 40, tm0);
+            for (int i = 0; i < uids.size(); i++) {
+                DataItem di = dm0.read(uids.get(i));
+                SubArray sa = di.data();
+                assert Arrays.equals(datas.get(i), Arrays.copyOfRange(sa.raw, sa.start, sa.end));
+                di.release();
+            }
+            for (int i = 0; i < 20; i++) {
+                byte[] data = RandomUtil.randomBytes(1000);
+                uids.add(dm0.insert(0, data));
+                datas.add(data);
+            }
+            if (!crash) {
+                dm0.close();
+            }
+        }
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".log.000000").delete();
     }
 
     @Test
@@ -138,6 +179,7 @@ public class DataManagerTest {
 
         new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestDMMulti.db").delete();
         new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestDMMulti.log").delete();
+        new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestDMMulti.log.000000").delete();
     }
 
     @Test
@@ -164,7 +206,169 @@ public class DataManagerTest {
 
         new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestRecoverySimple.db").delete();
         new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestRecoverySimple.log").delete();
+        new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestRecoverySimple.log.000000").delete();
         new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestRecoverySimple.xid").delete();
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCheckpointRecovery() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestCheckpointRecovery";
+        TransactionManager tm0 = new MockTransactionManager();
+        DataManager dm0 = DataManager.create(path, PageCache.PAGE_SIZE * 10, tm0);
+
+        List<Long> uids = new ArrayList<>();
+        List<byte[]> datas = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            if (i == 100) {
+                dm0.checkpoint();
+            }
+            byte[] data = RandomUtil.randomBytes(100);
+            uids.add(dm0.insert(0, data));
+            datas.add(data);
+        }
+
+        // 不正常关闭：检查点之前的数据已在文件中，检查点之后的从日志重做
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE * 10, tm0);
+        for (int i = 0; i < uids.size(); i++) {
+            DataItem di = dm1.read(uids.get(i));
+            SubArray sa = di.data();
+            assert Arrays.equals(datas.get(i), Arrays.copyOfRange(sa.raw, sa.start, sa.end));
+            di.release();
+        }
+        dm1.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".log.000000").delete();
+    }
+
+    @Test
+    public void testFuzzyCheckpoint() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestFuzzyCheckpoint";
+        TransactionManager tm0 = new MockTransactionManager();
+        DataManager dm0 = DataManager.create(path, PageCache.PAGE_SIZE * 10, tm0);
+
+        // 检查点与插入并发进行，插入不被阻塞
+        List<Long> uids = new ArrayList<>();
+        List<byte[]> datas = new ArrayList<>();
+        Thread checkpointer = new Thread(() -> {
+            for (int i = 0; i < 20; i++) {
+                dm0.checkpoint();
+            }
+        });
+        checkpointer.start();
+        for (int i = 0; i < 500; i++) {
+            byte[] data = RandomUtil.randomBytes(100);
+            uids.add(dm0.insert(0, data));
+            datas.add(data);
+        }
+        checkpointer.join();
+
+        // 不正常关闭后，从检查点日志中的脏页表确定重做起点
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE * 10, tm0);
+        for (int i = 0; i < uids.size(); i++) {
+            DataItem di = dm1.read(uids.get(i));
+            SubArray sa = di.data();
+            assert Arrays.equals(datas.get(i), Arrays.copyOfRange(sa.raw, sa.start, sa.end));
+            di.release();
+        }
+        dm1.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".log.000000").delete();
+    }
+
+    @Test
+    public void testPageLsnSkipRedo() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestPageLsn";
+        TransactionManager tm0 = new MockTransactionManager();
+        DataManager dm0 = DataManager.create(path, PageCache.PAGE_SIZE * 10, tm0);
+        List<Long> uids = new ArrayList<>();
+        List<byte[]> datas = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            byte[] data = RandomUtil.randomBytes(100);
+            uids.add(dm0.insert(0, data));
+            datas.add(data);
+        }
+        PageCache pageCache = ((DataManagerImpl) dm0).pageCache;
+        pageCache.flushAll();
+
+        // 不写日志直接改写页面，页面的 PageLSN 已经覆盖了插入日志，恢复时不应再重做
+        DataItem di0 = dm0.read(uids.get(0));
+        SubArray sa0 = di0.data();
+        byte[] changed = RandomUtil.randomBytes(100);
+        System.arraycopy(changed, 0, sa0.raw, sa0.start, changed.length);
+        di0.page().setDirty(true);
+        di0.release();
+        datas.set(0, changed);
+        pageCache.flushAll();
+
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE * 10, tm0);
+        for (int i = 0; i < uids.size(); i++) {
+            DataItem di = dm1.read(uids.get(i));
+            SubArray sa = di.data();
+            assert Arrays.equals(datas.get(i), Arrays.copyOfRange(sa.raw, sa.start, sa.end));
+            di.release();
+        }
+        dm1.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".log.000000").delete();
+    }
+
+    @Test
+    public void testDeltaUpdateRecovery() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestDeltaUpdate";
+        TransactionManager tm0 = TransactionManager.create(path);
+        DataManager dm0 = DataManager.create(path, PageCache.PAGE_SIZE * 10, tm0);
+        long xid = tm0.begin();
+        byte[] data0 = RandomUtil.randomBytes(1000);
+        byte[] data1 = RandomUtil.randomBytes(1000);
+        long uid0 = dm0.insert(xid, data0);
+        long uid1 = dm0.insert(xid, data1);
+        tm0.commit(xid);
+
+        // 只修改8个字节，日志只记录被修改的区间
+        byte[] patch = RandomUtil.randomBytes(8);
+        long committed = tm0.begin();
+        DataItem di0 = dm0.read(uid0);
+        SubArray sa0 = di0.data();
+        long before = ((DataManagerImpl) dm0).logger.getEndLsn();
+        di0.before();
+        System.arraycopy(patch, 0, sa0.raw, sa0.start + 500, patch.length);
+        di0.after(committed);
+        assert ((DataManagerImpl) dm0).logger.getEndLsn() - before < 100;
+        di0.release();
+        tm0.commit(committed);
+        System.arraycopy(patch, 0, data0, 500, patch.length);
+
+        // 未提交的修改在恢复时回滚
+        long active = tm0.begin();
+        DataItem di1 = dm0.read(uid1);
+        SubArray sa1 = di1.data();
+        di1.before();
+        System.arraycopy(RandomUtil.randomBytes(8), 0, sa1.raw, sa1.start + 200, 8);
+        di1.after(active);
+        di1.release();
+
+        DataManager dm1 = DataManager.open(path, PageCache.PAGE_SIZE * 10, tm0);
+        DataItem di = dm1.read(uid0);
+        SubArray sa = di.data();
+        assert Arrays.equals(data0, Arrays.copyOfRange(sa.raw, sa.start, sa.end));
+        di.release();
+        di = dm1.read(uid1);
+        sa = di.data();
+        assert Arrays.equals(data1, Arrays.copyOfRange(sa.raw, sa.start, sa.end));
+        di.release();
+        dm1.close();
+        tm0.close();
+
+        new File(path + ".db").delete();
+        new File(path + ".log").delete();
+        new File(path + ".log.000000").delete();
+        new File(path + ".xid").delete();
+    }
+}
@@ -3,7 +3,19 @@ package org.jyafoo.mydb.backend.dm.logger;
 import org.junit.Test;
 import org.jyafoo.mydb.backend.dm.logger.Logger;
 
+import com.google.common.primitives.Bytes;
+import org.jyafoo.mydb.backend.common.IoStats;
+import org.jyafoo.mydb.backend.common.SubArray;
+import org.jyafoo.mydb.backend.utils.Parser;
+import org.jyafoo.mydb.backend.utils.RandomUtil;
+
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 public class LoggerTest {
     @Test
@@ -45,5 +57,239 @@ public class LoggerTest {
         lg.close();
 
         assert new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\logger_test.log").delete();
+        assert new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\logger_test.log.000000").delete();
+    }
+
+    @Test
+    public void testLoggerGroupCommit() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\logger_group_test";
+        Logger lg = Logger.create(path);
+        int threads = 8, perThread = 100;
+        CountDownLatch cdl = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    lg.log((id + "-" + i).getBytes());
+                }
+                cdl.countDown();
+            }).start();
+        }
+        cdl.await();
+        lg.close();
+
+        // 并发写入的日志全部持久化，且每条都能通过校验
+        Logger lg2 = Logger.open(path);
+        lg2.rewind();
+        Set<String> logs = new HashSet<>();
+        byte[] log;
+        while ((log = lg2.next()) != null) {
+            logs.add(new String(log));
+        }
+        assert logs.size() == threads * perThread;
+        assert logs.contains("7-99");
+        lg2.close();
+
+        assert new File(path + ".log").delete();
+        assert new File(path + ".log.000000").delete();
+    }
+
+    @Test
+    public void testLoggerBadTail() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\logger_tail_test";
+        Logger lg = Logger.create(path);
+        lg.log("aaa".getBytes());
+        long lsn = lg.log("bbb".getBytes());
+        lg.close();
+
+        // 模拟崩溃时写了一半的日志
+        try (RandomAccessFile raf = new RandomAccessFile(path + ".log.000000", "rw")) {
+            raf.seek(raf.length());
+            raf.write(new byte[]{0, 0, 0, 9, 1, 2, 3});
+        }
+
+        lg = Logger.open(path);
+        lg.rewind();
+        assert "aaa".equals(new String(lg.next()));
+        assert "bbb".equals(new String(lg.next()));
+        assert lg.next() == null;
+        // BadTail 被截断，新日志紧接在最后一条有效日志之后
+        long next = lg.log("ccc".getBytes());
+        assert next == lsn + LoggerImpl.OF_DATA + 3;
+        lg.close();
+
+        lg = Logger.open(path);
+        lg.rewind();
+        assert "aaa".equals(new String(lg.next()));
+        assert "bbb".equals(new String(lg.next()));
+        assert "ccc".equals(new String(lg.next()));
+        assert lg.next() == null;
+        lg.close();
+
+        assert new File(path + ".log").delete();
+        assert new File(path + ".log.000000").delete();
+    }
+
+    @Test
+    public void testLoggerScanFrom() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\logger_scan_test";
+        Logger lg = Logger.create(path);
+        long first = lg.log("aaa".getBytes());
+        long lsn = lg.log("bbb".getBytes());
+        long end = lg.getEndLsn();
+        lg.close();
+
+        // 破坏第一条日志：从头扫描会把它当作 BadTail，从指定位置扫描则不会读到它
+        try (RandomAccessFile raf = new RandomAccessFile(path + ".log.000000", "rw")) {
+            raf.seek(first + LoggerImpl.OF_DATA);
+            raf.write('x');
+        }
+
+        lg = Logger.open(path);
+        lg.scanFrom(lsn);
+        assert lg.getEndLsn() == end;
+        assert lg.log("ccc".getBytes()) == end;
+        lg.seek(lsn);
+        assert "bbb".equals(new String(lg.next()));
+        assert "ccc".equals(new String(lg.next()));
+        assert lg.next() == null;
+        lg.close();
+
+        assert new File(path + ".log").delete();
+        assert new File(path + ".log.000000").delete();
+    }
+
+    @Test
+    public void testLegacyLogMigration() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\logger_legacy_test";
+        // 按旧格式写入：[XChecksum] [Size] [Checksum] [Data] ...，最后一条日志不完整
+        byte[] body = new byte[0];
+        int xChecksum = 0;
+        for (String s : new String[]{"aaa", "bbb"}) {
+            byte[] data = s.getBytes();
+            byte[] log = Bytes.concat(Parser.int2Byte(data.length), Parser.int2Byte(LegacyLog.calChecksum(0, data)), data);
+            xChecksum = LegacyLog.calChecksum(xChecksum, log);
+            body = Bytes.concat(body, log);
+        }
+        try (FileOutputStream out = new FileOutputStream(path + ".log")) {
+            out.write(Parser.int2Byte(xChecksum));
+            out.write(body);
+            out.write(new byte[]{0, 0, 0, 3, 7});
+        }
+
+        Logger lg = Logger.open(path);
+        lg.rewind();
+        assert "aaa".equals(new String(lg.next()));
+        assert "bbb".equals(new String(lg.next()));
+        assert lg.next() == null;
+        lg.log("ccc".getBytes());
+        lg.close();
+
+        lg = Logger.open(path);
+        lg.rewind();
+        assert "aaa".equals(new String(lg.next()));
+        assert "bbb".equals(new String(lg.next()));
+        assert "ccc".equals(new String(lg.next()));
+        assert lg.next() == null;
+        lg.close();
+
+        assert new File(path + ".log").delete();
+        assert new File(path + ".log.000000").delete();
+    }
+
+    @Test
+    public void testLoggerSegments() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\logger_segment_test";
+        Logger lg = Logger.create(path, 256);
+        long[] lsns = new long[100];
+        for (int i = 0; i < 100; i++) {
+            lsns[i] = lg.log(("log-" + i).getBytes());
+        }
+        assert new File(path + ".log.000003").exists();
+        lg.close();
+
+        // 跨段顺序读出全部日志
+        lg = Logger.open(path, 256);
+        lg.rewind();
+        for (int i = 0; i < 100; i++) {
+            assert ("log-" + i).equals(new String(lg.next()));
+        }
+        assert lg.next() == null;
+
+        // 回收第50条日志之前的段，之后从保留的第一个段读起
+        lg.truncateBefore(lsns[50]);
+        assert !new File(path + ".log.000000").exists();
+        lg.seek(lsns[50]);
+        assert "log-50".equals(new String(lg.next()));
+        for (int i = 100; i < 200; i++) {
+            lg.log(("log-" + i).getBytes());
+        }
+        lg.close();
+
+        // 回收的段文件被重新使用，重新打开后日志依然连续
+        lg = Logger.open(path, 256);
+        lg.rewind();
+        int first = Integer.parseInt(new String(lg.next()).substring(4));
+        assert first <= 50;
+        for (int i = first + 1; i < 200; i++) {
+            assert ("log-" + i).equals(new String(lg.next()));
+        }
+        assert lg.next() == null;
+        lg.close();
+
+        assert new File(path + ".log").delete();
+        for (int seq = 0; seq < 100; seq++) {
+            new File(String.format("%s.log.%06d", path, seq)).delete();
+        }
+    }
+
+    @Test
+    public void testLoggerView() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\logger_view_test";
+        // 超过一个读缓冲区的日志和跨越缓冲区边界的日志
+        byte[] large = RandomUtil.randomBytes(3 << 20);
+        Logger lg = Logger.create(path);
+        for (int i = 0; i < 2000; i++) {
+            lg.log(RandomUtil.randomBytes(1000));
+        }
+        lg.log(large);
+        lg.log("aaa".getBytes());
+        lg.close();
+
+        lg = Logger.open(path);
+        lg.rewind();
+        for (int i = 0; i < 2000; i++) {
+            SubArray view = lg.nextView();
+            assert view.end - view.start == 1000;
+        }
+        SubArray view = lg.nextView();
+        assert Arrays.equals(large, Arrays.copyOfRange(view.raw, view.start, view.end));
+        assert "aaa".equals(new String(lg.next()));
+        assert lg.nextView() == null;
+        lg.close();
+
+        assert new File(path + ".log").delete();
+        assert new File(path + ".log.000000").delete();
+    }
+
+    @Test
+    public void testLoggerStats() {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\logger_stats_test";
+        Logger lg = Logger.create(path);
+        for (int i = 0; i < 10; i++) {
+            lg.log(new byte[100]);
+        }
+        IoStats stats = lg.stats();
+        assert stats.records == 10;
+        // 每条日志有16字节的前导信息
+        assert stats.bytes == 10 * 116;
+        assert stats.syncs > 0 && stats.syncs <= 10;
+        assert Arrays.stream(stats.syncLatency).sum() == stats.syncs;
+        assert stats.extras.get("queue depth") == 0;
+        assert stats.extras.get("file size") == 16 + 10 * 116;
+        lg.close();
+
+        assert new File(path + ".log").delete();
+        assert new File(path + ".log.000000").delete();
     }
-}
\ No newline at end of file
+}
@@ -54,5 +54,8 @@ public class MockPageCache implements PageCache {
 
     @Override
     public void flushPage(Page pg) {}
+
+    @Override
+    public void flushAll() {}
     
 }
\ No newline at end of file
@@ -1,11 +1,14 @@
 package org.jyafoo.mydb.backend.dm.pageCache;
 
 import org.junit.Test;
+import org.jyafoo.mydb.backend.common.CacheStats;
 import org.jyafoo.mydb.backend.dm.page.Page;
 import org.jyafoo.mydb.backend.utils.Panic;
 import org.jyafoo.mydb.backend.utils.RandomUtil;
+import org.jyafoo.mydb.common.Error;
 
 import java.io.File;
+import java.io.RandomAccessFile;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Random;
@@ -42,6 +45,81 @@ public class PageCacheTest {
         assert new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\pcacher_simple_test0.db").delete();
     }
 
+    @Test
+    public void testPageCacheEviction() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\pcacher_eviction_test";
+        PageCacheImpl pc = PageCache.create(path, PageCache.PAGE_SIZE * 10);
+        for(int i = 0; i < 40; i ++) {
+            byte[] tmp = new byte[PageCache.PAGE_SIZE];
+            int pgno = pc.newPage(tmp);
+            Page pg = pc.getPage(pgno);
+            pg.setDirty(true);
+            pg.getData()[0] = (byte)pgno;
+            pg.release();
+        }
+        // 释放后的页面驻留在缓存中，再次访问命中
+        Page hot = pc.getPage(40);
+        hot.release();
+        assert pc.getHitCount() == 1;
+        assert pc.getEvictionCount() == 30;
+
+        // 所有页面都被引用时，缓存无法空出位置
+        Page[] pinned = new Page[10];
+        for(int i = 0; i < 10; i ++) {
+            pinned[i] = pc.getPage(i + 1);
+        }
+        try {
+            pc.getPage(11);
+            assert false;
+        } catch (Exception e) {
+            assert e == Error.CacheFullException;
+        }
+        for(Page pg : pinned) {
+            pg.release();
+        }
+        pc.close();
+
+        // 被驱逐的脏页已经写回
+        pc = PageCache.open(path, PageCache.PAGE_SIZE * 10);
+        for(int i = 1; i <= 40; i ++) {
+            Page pg = pc.getPage(i);
+            assert pg.getData()[0] == (byte)i;
+            pg.release();
+        }
+        pc.close();
+        assert new File(path + ".db").delete();
+    }
+
+    @Test
+    public void testPageCacheScanResistance() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\pcacher_scan_test";
+        PageCacheImpl pc = PageCache.create(path, PageCache.PAGE_SIZE * 20);
+        for(int i = 0; i < 200; i ++) {
+            pc.newPage(new byte[PageCache.PAGE_SIZE]);
+        }
+        // 1~5 号页面被访问后挤出缓存，再次加载时进入保护段
+        for(int i = 1; i <= 25; i ++) {
+            pc.getPage(i).release();
+        }
+        for(int i = 1; i <= 5; i ++) {
+            pc.getPage(i).release();
+        }
+
+        // 一次扫描经过的页面只在试用段中流过
+        for(int i = 100; i < 200; i ++) {
+            pc.getPage(i).release();
+        }
+
+        // 热点页面仍在缓存中
+        long misses = pc.getMissCount();
+        for(int i = 1; i <= 5; i ++) {
+            pc.getPage(i).release();
+        }
+        assert pc.getMissCount() == misses;
+        pc.close();
+        assert new File(path + ".db").delete();
+    }
+
     private PageCache pc1;
     private CountDownLatch cdl1;
     private AtomicInteger noPages1;
@@ -93,6 +171,161 @@ public class PageCacheTest {
     }
 
 
+    @Test
+    public void testPageCacheBackgroundFlush() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\pcacher_flush_test";
+        PageCacheImpl pc = PageCache.create(path, PageCache.PAGE_SIZE * 10);
+        for (int i = 1; i <= 5; i++) {
+            pc.newPage(new byte[PageCache.PAGE_SIZE]);
+        }
+        // 修改后释放的页面留在缓存中，由刷盘线程写回
+        byte[][] expected = new byte[6][];
+        for (int i = 1; i <= 5; i++) {
+            Page pg = pc.getPage(i);
+            expected[i] = RandomUtil.randomBytes(PageCache.PAGE_SIZE);
+            System.arraycopy(expected[i], 0, pg.getData(), 0, PageCache.PAGE_SIZE);
+            pg.setDirty(true);
+            pg.release();
+        }
+        pc.flushDirtyPages();
+
+        try (RandomAccessFile raf = new RandomAccessFile(path + PageCacheImpl.DB_SUFFIX, "r")) {
+            for (int i = 1; i <= 5; i++) {
+                byte[] onDisk = new byte[PageCache.PAGE_SIZE];
+                raf.seek((long) (i - 1) * PageCache.PAGE_SIZE);
+                raf.readFully(onDisk);
+                assert Arrays.equals(expected[i], onDisk);
+            }
+        }
+        for (int i = 1; i <= 5; i++) {
+            Page pg = pc.getPage(i);
+            assert !pg.isDirty();
+            pg.release();
+        }
+        pc.close();
+        assert new File(path + PageCacheImpl.DB_SUFFIX).delete();
+    }
+
+    @Test
+    public void testMmapPageCache() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\pcacher_mmap_test";
+        PageCache.create(path, PageCache.PAGE_SIZE * 10).close();
+
+        // 写入跨越多个映射块的页面，部分页面在缓存中修改后被驱逐写回
+        int pages = 600;
+        byte[][] expected = new byte[pages + 1][];
+        PageCache pc = PageCache.open(path, PageCache.PAGE_SIZE * 10, true);
+        for (int i = 1; i <= pages; i++) {
+            expected[i] = RandomUtil.randomBytes(PageCache.PAGE_SIZE);
+            assert pc.newPage(expected[i]) == i;
+        }
+        for (int i = 1; i <= pages; i += 7) {
+            Page pg = pc.getPage(i);
+            assert Arrays.equals(expected[i], pg.getData());
+            expected[i] = RandomUtil.randomBytes(PageCache.PAGE_SIZE);
+            System.arraycopy(expected[i], 0, pg.getData(), 0, PageCache.PAGE_SIZE);
+            pg.setDirty(true);
+            pg.release();
+        }
+        pc.close();
+
+        // 关闭后文件截断到实际页数，普通方式打开能读到同样的数据
+        assert new File(path + PageCacheImpl.DB_SUFFIX).length() == (long) pages * PageCache.PAGE_SIZE;
+        pc = PageCache.open(path, PageCache.PAGE_SIZE * 10);
+        assert pc.getPageNumbers() == pages;
+        for (int i = 1; i <= pages; i++) {
+            Page pg = pc.getPage(i);
+            assert Arrays.equals(expected[i], pg.getData());
+            pg.release();
+        }
+        pc.close();
+        assert new File(path + PageCacheImpl.DB_SUFFIX).delete();
+    }
+
+    @Test
+    public void testPageCacheFrameReuse() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\pcacher_frame_test";
+        PageCache pc = PageCache.create(path, PageCache.PAGE_SIZE * 10);
+        byte[][] expected = new byte[31][];
+        for (int i = 1; i <= 30; i++) {
+            expected[i] = RandomUtil.randomBytes(PageCache.PAGE_SIZE);
+            pc.newPage(expected[i]);
+        }
+        // 反复换页，被驱逐页面的页数组会被复用，复用后读到的必须是新页面的数据
+        for (int round = 0; round < 3; round++) {
+            for (int i = 1; i <= 30; i++) {
+                Page pg = pc.getPage(i);
+                assert Arrays.equals(expected[i], pg.getData());
+                pg.release();
+            }
+        }
+        // 超出文件末尾的页面读到的是全零，不能残留复用页框中的旧数据
+        Page pg = pc.getPage(31);
+        assert Arrays.equals(new byte[PageCache.PAGE_SIZE], pg.getData());
+        pg.release();
+        pc.close();
+        assert new File(path + PageCacheImpl.DB_SUFFIX).delete();
+    }
+
+    @Test
+    public void testPageCacheStats() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\pcacher_stats_test";
+        PageCacheImpl pc = PageCache.create(path, PageCache.PAGE_SIZE * 10);
+        for (int i = 1; i <= 20; i++) {
+            pc.newPage(RandomUtil.randomBytes(PageCache.PAGE_SIZE));
+        }
+        Page pg = pc.getPage(1);
+        pc.getPage(1).release();
+        CacheStats stats = pc.stats();
+        assert stats.misses == 1 && stats.hits == 1;
+        assert stats.pinned == 1;
+        assert Arrays.stream(stats.missLatency).sum() == 1;
+
+        // 释放后页面不再被引用，修改过的页面登记为脏页
+        pg.setDirty(true);
+        pg.release();
+        stats = pc.stats();
+        assert stats.pinned == 0;
+        assert stats.extras.get("flush pending") == 1;
+
+        // 访问超过缓存容量的页面，产生驱逐
+        for (int i = 2; i <= 20; i++) {
+            pc.getPage(i).release();
+        }
+        stats = pc.stats();
+        assert stats.misses == 20;
+        assert stats.evictions == 10;
+        assert stats.size == 10;
+        pc.close();
+        assert new File(path + PageCacheImpl.DB_SUFFIX).delete();
+    }
+
+    @Test
+    public void testPageCachePrefetch() throws Exception {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\pcacher_prefetch_test";
+        PageCacheImpl pc = PageCache.create(path, PageCache.PAGE_SIZE * 20);
+        for (int i = 1; i <= 10; i++) {
+            pc.newPage(RandomUtil.randomBytes(PageCache.PAGE_SIZE));
+        }
+
+        // 超出文件末尾的页号被忽略，其余页面由预读线程加载
+        pc.prefetch(new int[]{1, 2, 3, 4, 5, 100});
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pc.getMissCount() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assert pc.getMissCount() == 5;
+
+        // 预读过的页面直接命中
+        for (int i = 1; i <= 5; i++) {
+            pc.getPage(i).release();
+        }
+        assert pc.getMissCount() == 5;
+        assert pc.getHitCount() == 5;
+        pc.close();
+        assert new File(path + PageCacheImpl.DB_SUFFIX).delete();
+    }
+
     private PageCache pc2, mpc;
     private CountDownLatch cdl2;
     private AtomicInteger noPages2;
@@ -34,5 +34,9 @@ public class BPlusTreeTest {
 
         assert new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestTreeSingle.db").delete();
         assert new File("C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestTreeSingle.log").delete();
+        // 日志超过一个段，关闭时的检查点会回收旧段
+        for (int seq = 0; seq < 10; seq++) {
+            new File(String.format("%s.log.%06d", "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\TestTreeSingle", seq)).delete();
+        }
     }
 }
\ No newline at end of file
@@ -42,6 +42,19 @@ public class ParseTest {
         res = Parser.Parse(stat.getBytes());
         begin = (Begin)res;
         assert begin.isRepeatableRead;
+        assert !begin.isAsyncCommit;
+
+        stat = "begin async";
+        res = Parser.Parse(stat.getBytes());
+        begin = (Begin)res;
+        assert !begin.isRepeatableRead;
+        assert begin.isAsyncCommit;
+
+        stat = "begin isolation level repeatable read async";
+        res = Parser.Parse(stat.getBytes());
+        begin = (Begin)res;
+        assert begin.isRepeatableRead;
+        assert begin.isAsyncCommit;
     }
 
     @Test
@@ -86,6 +99,13 @@ public class ParseTest {
         Show show = (Show)res;
         Gson gson = new Gson();
         System.out.println("Show");
+        assert !show.stats;
+        System.out.println(gson.toJson(show));
+
+        stat = "show stats";
+        res = Parser.Parse(stat.getBytes());
+        show = (Show)res;
+        assert show.stats;
         System.out.println(gson.toJson(show));
         System.out.println("======================");
     }
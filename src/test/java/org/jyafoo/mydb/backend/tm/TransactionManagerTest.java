@@ -92,4 +92,167 @@ public class TransactionManagerTest {
         }
         cdl.countDown();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAsyncCommit() {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\tranmger_async_test";
+        TransactionManager tm = TransactionManager.create(path);
+        long xid = tm.begin();
+        tm.commitAsync(xid);
+        // 异步提交立即可见
+        assert tm.isCommitted(xid);
+        assert !tm.isActive(xid);
+
+        // 没有写入文件之前崩溃，重新打开后仍是活跃状态
+        TransactionManager crashed = TransactionManager.open(path);
+        assert crashed.isActive(xid);
+        crashed.close();
+
+        boolean[] flushed = {false};
+        tm.syncCommits(() -> flushed[0] = true);
+        assert flushed[0];
+        TransactionManager reopened = TransactionManager.open(path);
+        assert reopened.isCommitted(xid);
+        reopened.close();
+        tm.close();
+
+        assert new File(path + ".xid").delete();
+    }
+
+    @Test
+    public void testXidStatusTable() {
+        XidStatusTable table = new XidStatusTable();
+        int n = 200000;
+        table.ensure(n);
+        for (long xid = 1; xid <= n; xid++) {
+            table.set(xid, (byte) (xid % 3));
+        }
+        for (long xid = 1; xid <= n; xid++) {
+            assert table.get(xid) == xid % 3;
+        }
+        // 覆盖已有状态不影响相邻的事务
+        table.set(100, (byte) 2);
+        assert table.get(99) == 0 && table.get(100) == 2 && table.get(101) == 2;
+        // 未分配的事务为活跃状态
+        assert table.get(n * 10L) == 0;
+    }
+
+    @Test
+    public void testXidRange() {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\tranmger_range_test";
+        new File(path + ".xid").delete();
+        TransactionManager tm = TransactionManager.create(path);
+        int n = TransactionManagerImpl.XID_RANGE + 10;
+        for (long i = 1; i <= n; i++) {
+            long xid = tm.begin();
+            assert xid == i;
+            assert tm.isActive(xid);
+            if (xid % 2 == 0) {
+                tm.commit(xid);
+            }
+        }
+        // 模拟崩溃：不关闭直接重新打开，从预分配的上限之后开始分配，没有用到的事务号在恢复时标记为中止
+        tm = TransactionManager.open(path);
+        long xid = tm.begin();
+        assert xid == 2L * TransactionManagerImpl.XID_RANGE + 1;
+        tm.abortUnfinished();
+        assert tm.isCommitted(2) && tm.isAborted(1) && tm.isAborted(n + 1);
+        assert tm.isActive(xid);
+        tm.close();
+
+        // 正常关闭时收回没有发出的事务号，仍未结束的事务被中止
+        tm = TransactionManager.open(path);
+        assert tm.isAborted(n + 1) && tm.isCommitted(n) && tm.isAborted(xid);
+        assert tm.begin() == xid + 1;
+        tm.close();
+        assert new File(path + ".xid").delete();
+    }
+
+    @Test
+    public void testFreeze() {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\tranmger_freeze_test";
+        File xidFile = new File(path + ".xid");
+        xidFile.delete();
+        TransactionManager tm = TransactionManager.create(path);
+        // 超过状态表的一页，冻结后第一页被释放
+        int n = TransactionManagerImpl.FREEZE_THRESHOLD + 100;
+        for (long i = 1; i <= n; i++) {
+            long xid = tm.begin();
+            if (xid == 50) {
+                continue;
+            }
+            if (xid % 1000 == 0) {
+                tm.abort(xid);
+            } else {
+                tm.commitAsync(xid);
+            }
+        }
+        tm.syncCommits(() -> {
+        });
+        long length = xidFile.length();
+
+        // 冻结线停在第一个活跃的事务之前
+        tm.freeze();
+        assert xidFile.length() < length;
+        assert tm.isCommitted(1) && tm.isCommitted(49) && tm.isActive(50);
+        tm.commit(50);
+        tm.freeze();
+        assert xidFile.length() < length / 10;
+        for (long xid = 1; xid <= n; xid++) {
+            assert xid % 1000 == 0 ? tm.isAborted(xid) : tm.isCommitted(xid);
+        }
+        long next = tm.begin();
+        assert tm.isActive(next);
+        tm.close();
+
+        // 重新打开后冻结信息仍然有效，冻结线之后的事务继续记录在文件中，关闭时仍未结束的事务被中止
+        tm = TransactionManager.open(path);
+        assert tm.isAborted(1000) && tm.isCommitted(999) && tm.isCommitted(50) && tm.isCommitted(n);
+        assert tm.isAborted(next);
+        long xid = tm.begin();
+        tm.commit(xid);
+        tm.close();
+        tm = TransactionManager.open(path);
+        assert tm.isCommitted(xid) && tm.isAborted(n / 1000 * 1000);
+        tm.close();
+        assert xidFile.delete();
+    }
+
+    @Test
+    public void testFreezeAcrossReopen() {
+        String path = "C:\\Users\\JIA\\Desktop\\HLJU_CSTI\\25020-数据库科系统概论\\25022-实验代码\\20225958 李嘉富\\实验三四\\MYDB\\src\\main\\resources\\db\\tranmger_reopen_test";
+        File xidFile = new File(path + ".xid");
+        xidFile.delete();
+        TransactionManager.create(path).close();
+
+        // 正常关闭时收回没有发出的事务号，反复打开不会积累中止区间，文件也不会增长
+        for (int i = 0; i < 20; i++) {
+            TransactionManagerImpl tm = TransactionManager.open(path);
+            tm.abortUnfinished();
+            tm.freeze();
+            assert tm.frozenAbortedRanges() == 0;
+            for (int j = 0; j < 3; j++) {
+                tm.commit(tm.begin());
+            }
+            tm.close();
+            assert xidFile.length() < 64;
+        }
+
+        // 每次崩溃没有发出的事务号是连续的，只增加一个中止区间
+        int crashes = 5;
+        for (int i = 0; i < crashes; i++) {
+            TransactionManagerImpl tm = TransactionManager.open(path);
+            tm.abortUnfinished();
+            tm.freeze();
+            assert tm.frozenAbortedRanges() <= i;
+            tm.commit(tm.begin());
+        }
+        TransactionManagerImpl tm = TransactionManager.open(path);
+        tm.abortUnfinished();
+        tm.freeze();
+        assert tm.frozenAbortedRanges() <= crashes;
+        assert tm.isCommitted(60) && tm.isCommitted(61) && tm.isAborted(62);
+        tm.close();
+        assert xidFile.delete();
+    }
+}
@@ -0,0 +1,85 @@
+package org.jyafoo.mydb.backend.vm;
+
+import org.junit.Test;
+import org.jyafoo.mydb.backend.common.SubArray;
+import org.jyafoo.mydb.backend.dm.dataItem.MockDataItem;
+import org.jyafoo.mydb.backend.tm.MockTransactionManager;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+public class VisibilityTest {
+
+    /**
+     * 记录查询次数的事务管理器，committed 中的事务已提交，pending 中的事务异步提交但还没有刷盘
+     */
+    private static class CountingTransactionManager extends MockTransactionManager {
+        Set<Long> committed = new HashSet<>();
+        Set<Long> aborted = new HashSet<>();
+        Set<Long> pending = new HashSet<>();
+        int lookups;
+
+        @Override
+        public boolean isCommitted(long xid) {
+            lookups++;
+            return committed.contains(xid);
+        }
+
+        @Override
+        public boolean isAborted(long xid) {
+            lookups++;
+            return aborted.contains(xid);
+        }
+
+        @Override
+        public boolean isCommitPersisted(long xid) {
+            return committed.contains(xid) && !pending.contains(xid);
+        }
+    }
+
+    private static Entry newEntry(long xmin) {
+        byte[] raw = Entry.wrapEntryRaw(xmin, new byte[]{1, 2, 3});
+        return Entry.newEntry(null, MockDataItem.newMockDataItem(1, new SubArray(raw, 0, raw.length)), 1);
+    }
+
+    @Test
+    public void testHintBits() {
+        CountingTransactionManager tm = new CountingTransactionManager();
+        tm.committed.add(1L);
+        tm.aborted.add(2L);
+        Transaction t = Transaction.newTransaction(5, 0, new HashMap<>());
+
+        // 第一次判断查询事务管理器并设置提示位，之后不再查询
+        Entry entry = newEntry(1);
+        assert Visibility.isVisible(tm, t, entry);
+        int lookups = tm.lookups;
+        assert Visibility.isVisible(tm, t, entry);
+        assert tm.lookups == lookups;
+        assert entry.getXmin() == 1;
+
+        // 删除的事务已中止，记录仍然可见
+        entry.setXmax(2);
+        assert Visibility.isVisible(tm, t, entry);
+        lookups = tm.lookups;
+        assert Visibility.isVisible(tm, t, entry);
+        assert tm.lookups == lookups;
+        assert entry.getXmax() == 2;
+
+        // 重新设置 XMAX 会清除旧的提示位
+        tm.committed.add(3L);
+        entry.setXmax(3);
+        assert entry.getXmax() == 3;
+        assert !Visibility.isVisible(tm, t, entry);
+        assert entry.data().length == 3;
+
+        // 提交状态还没有刷盘时不设置提示位
+        tm.committed.add(4L);
+        tm.pending.add(4L);
+        Entry async = newEntry(4);
+        assert Visibility.isVisible(tm, t, async);
+        lookups = tm.lookups;
+        assert Visibility.isVisible(tm, t, async);
+        assert tm.lookups > lookups;
+    }
+}